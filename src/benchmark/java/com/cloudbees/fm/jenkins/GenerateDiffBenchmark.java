@@ -0,0 +1,61 @@
+package com.cloudbees.fm.jenkins;
+
+import io.rollout.benchmark.Entities;
+import io.rollout.configuration.comparison.ComparisonResult;
+import io.rollout.configuration.comparison.ConfigurationComparator;
+import io.rollout.configuration.diff.JsonTreeDiff;
+import io.rollout.publicapi.model.Application;
+import io.rollout.publicapi.model.Environment;
+import io.rollout.publicapi.model.Flag;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Generates the unified diff of the changes between two builds' flags, where 1% of the flags changed, line by line and structurally. In this package as the action
+ * can only be created here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GenerateDiffBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int entityCount;
+
+    private FeatureManagementConfigurationAction action;
+    private ComparisonResult<Flag> changes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Flag> before = Entities.flags(entityCount, 42);
+        List<Flag> after = Entities.nextBuild(before, Flag::new, 0.01, 43);
+        changes = new ConfigurationComparator().compare(before, after);
+        action = new FeatureManagementConfigurationAction(new Application("application", "Application"), new Environment("environment", "Environment", null));
+    }
+
+    @Benchmark
+    public String generateDiff() {
+        return action.generateDiff(changes);
+    }
+
+    /**
+     * The changed flags diffed by {@link JsonTreeDiff} rather than line by line
+     */
+    @Benchmark
+    public int structuralDiff() {
+        int length = 0;
+        for (Pair<Flag, Flag> pair : changes.getInBothButDifferent()) {
+            length += JsonTreeDiff.toUnifiedDiff(pair.getLeft().getName(), JsonTreeDiff.diff(pair.getLeft(), pair.getRight())).length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,40 @@
+package io.rollout.benchmark;
+
+import com.cloudbees.fm.jenkins.ui.AuditLogMessage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses every message of an audit log, as the audit log page does when it renders
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AuditLogMessageBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int entityCount;
+
+    private List<String> messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messages = Entities.auditLogMessages(entityCount, 42);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String message : messages) {
+            blackhole.consume(new AuditLogMessage(message));
+        }
+    }
+}
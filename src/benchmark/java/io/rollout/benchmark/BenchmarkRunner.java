@@ -0,0 +1,36 @@
+package io.rollout.benchmark;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks from surefire, so that they can be run offline with {@code mvn -P benchmark test}. Pass
+ * {@code -Dbenchmark=<regex>} to only run some of them, and {@code -Dbenchmark.entityCount=100,10000} to only run some of the sizes.
+ * Each benchmark reports its throughput, and the GC profiler adds the allocation rate ({@code gc.alloc.rate.norm} is per operation).
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        String entityCount = System.getProperty("benchmark.entityCount");
+        if (entityCount != null) {
+            builder.param("entityCount", entityCount.split(","));
+        }
+        Options options = builder
+                .include(System.getProperty("benchmark", "(io\\.rollout|com\\.cloudbees\\.fm)\\..*Benchmark"))
+                // The largest configurations need more than the default heap
+                .jvmArgsAppend("-Xmx2g")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .shouldFailOnError(true)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,55 @@
+package io.rollout.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rollout.publicapi.model.CompactValueDeserializer;
+import io.rollout.publicapi.model.Flag;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares reading flags into plain maps with reading them with {@link CompactValueDeserializer}. The retained heap of each (measured
+ * with JOL) is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompactModelBenchmark {
+    private static final TypeReference<List<Flag>> FLAGS = new TypeReference<List<Flag>>() {};
+
+    @Param({"1000", "10000"})
+    public int flagCount;
+
+    private final ObjectMapper plainMapper = new ObjectMapper();
+    private final ObjectMapper compactMapper = new ObjectMapper().registerModule(CompactValueDeserializer.module());
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        json = plainMapper.writeValueAsBytes(Entities.flags(flagCount, 42));
+        long plain = GraphLayout.parseInstance(plainMapper.readValue(json, FLAGS)).totalSize();
+        long compact = GraphLayout.parseInstance(compactMapper.readValue(json, FLAGS)).totalSize();
+        System.out.printf("%n%d flags: %,d bytes of JSON, %,d bytes of heap as plain maps, %,d bytes compact%n", flagCount, json.length, plain, compact);
+    }
+
+    @Benchmark
+    public List<Flag> readPlain() throws IOException {
+        return plainMapper.readValue(json, FLAGS);
+    }
+
+    @Benchmark
+    public List<Flag> readCompact() throws IOException {
+        return compactMapper.readValue(json, FLAGS);
+    }
+}
@@ -0,0 +1,63 @@
+package io.rollout.benchmark;
+
+import io.rollout.configuration.comparison.ComparisonResult;
+import io.rollout.configuration.comparison.ConfigurationComparator;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Flag;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares two builds' flags, where 1% of the flags changed, both in full and using their {@link EntityIndex}es
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ComparatorBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int entityCount;
+
+    private List<Flag> before;
+    private List<Flag> after;
+    private EntityIndex beforeIndex;
+    private EntityIndex afterIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        before = Entities.flags(entityCount, 42);
+        after = Entities.nextBuild(before, Flag::new, 0.01, 43);
+        beforeIndex = Entities.index(before);
+        afterIndex = Entities.index(after);
+    }
+
+    @Benchmark
+    public ComparisonResult<Flag> compare() {
+        return new ConfigurationComparator().compare(before, after);
+    }
+
+    @Benchmark
+    public ComparisonResult<Flag> compareIndexes() throws IOException {
+        return new ConfigurationComparator().compare(beforeIndex.getEntries(), positions -> load(before, positions),
+                afterIndex.getEntries(), positions -> load(after, positions));
+    }
+
+    private static Map<Integer, Flag> load(List<Flag> flags, Iterable<Integer> positions) {
+        Map<Integer, Flag> loaded = new HashMap<>();
+        for (int position : positions) {
+            loaded.put(position, flags.get(position));
+        }
+        return loaded;
+    }
+}
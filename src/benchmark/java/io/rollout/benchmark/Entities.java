@@ -0,0 +1,142 @@
+package io.rollout.benchmark;
+
+import io.rollout.publicapi.model.ConfigEntity;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Flag;
+import io.rollout.publicapi.model.TargetGroup;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Generates synthetic flags and target groups that look like the ones the Public API returns. The same seed always gives the same
+ * entities.
+ */
+public final class Entities {
+
+    private Entities() {
+    }
+
+    public static List<Flag> flags(int count, long seed) {
+        Random random = new Random(seed);
+        List<Flag> flags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Flag flag = new Flag();
+            flag.put("name", "flag.number" + i);
+            flag.put("description", "Generated flag " + i);
+            flag.put("enabled", random.nextBoolean());
+            flag.put("labels", Arrays.asList("generated", "group" + (i % 10)));
+            flag.put("platforms", Collections.singletonList(platform(random, i)));
+            flags.add(flag);
+        }
+        return flags;
+    }
+
+    public static List<TargetGroup> targetGroups(int count, long seed) {
+        Random random = new Random(seed);
+        List<TargetGroup> targetGroups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TargetGroup targetGroup = new TargetGroup();
+            targetGroup.put("name", "target.group" + i);
+            targetGroup.put("description", "Generated target group " + i);
+            targetGroup.put("conditions", Collections.singletonList(condition(random)));
+            targetGroup.put("operator", "or");
+            targetGroups.add(targetGroup);
+        }
+        return targetGroups;
+    }
+
+    /**
+     * The entities as they might be in the next build: a fraction of them changed, and as many again split between removed and added
+     */
+    public static <T extends ConfigEntity> List<T> nextBuild(List<T> entities, Supplier<T> factory, double fraction, long seed) {
+        Random random = new Random(seed);
+        List<T> next = new ArrayList<>(entities.size());
+        int added = 0;
+        for (T entity : entities) {
+            double r = random.nextDouble();
+            if (r < fraction / 2) {
+                continue; // removed
+            }
+            T copy = factory.get();
+            copy.putAll(entity);
+            if (r < fraction * 1.5) {
+                copy.put("description", "Changed " + random.nextInt());
+            }
+            next.add(copy);
+            if (r > 1 - fraction / 2) {
+                T extra = factory.get();
+                extra.putAll(entity);
+                extra.put("name", entity.getName() + ".added" + added++);
+                next.add(extra);
+            }
+        }
+        return next;
+    }
+
+    public static EntityIndex index(List<? extends ConfigEntity> entities) throws IOException {
+        EntityIndex.Builder builder = new EntityIndex.Builder();
+        for (ConfigEntity entity : entities) {
+            builder.add(entity);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Audit log messages in the forms the Public API sends, some with targeting or multi terms to split out
+     */
+    public static List<String> auditLogMessages(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    messages.add("Flag flag.number" + i + " was enabled");
+                    break;
+                case 1:
+                    messages.add("Changed the targeting of flag.number" + i + "<audit_log_targeting_term>in target.group" + random.nextInt(100)
+                            + "<audit_log_targeting_delimiter>value is " + random.nextBoolean()
+                            + "<audit_log_targeting_delimiter>split " + random.nextInt(100) + "%");
+                    break;
+                default:
+                    messages.add("Updated flag.number" + i + "<audit_log_multi_term>description<audit_log_multi_delimiter>labels"
+                            + "<audit_log_multi_delimiter>platforms<audit_log_multi_term_end>");
+                    break;
+            }
+        }
+        return messages;
+    }
+
+    private static Map<String, Object> platform(Random random, int i) {
+        Map<String, Object> platform = new HashMap<>();
+        platform.put("name", "Default");
+        platform.put("value", random.nextBoolean());
+        List<Map<String, Object>> conditions = new ArrayList<>();
+        for (int c = 0; c < 1 + random.nextInt(3); c++) {
+            Map<String, Object> condition = new HashMap<>();
+            condition.put("group", Collections.singletonMap("name", "target.group" + random.nextInt(Math.max(1, i))));
+            condition.put("value", random.nextInt(100) < 50);
+            conditions.add(condition);
+        }
+        platform.put("conditions", conditions);
+        return platform;
+    }
+
+    private static Map<String, Object> condition(Random random) {
+        Map<String, Object> condition = new HashMap<>();
+        condition.put("operator", "in-array");
+        condition.put("property", "user.email");
+        List<String> operand = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            operand.add("user" + random.nextInt(100000) + "@example.com");
+        }
+        condition.put("operand", operand);
+        return condition;
+    }
+}
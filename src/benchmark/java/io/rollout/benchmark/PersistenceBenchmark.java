@@ -0,0 +1,88 @@
+package io.rollout.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Flag;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Saves and loads a build's flags in the default format, the way the build step and the configuration page do
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PersistenceBenchmark {
+    private static final String ENVIRONMENT = "benchmark";
+
+    @Param({"100", "10000", "100000"})
+    public int entityCount;
+
+    private List<Flag> flags;
+    private EntityIndex index;
+    private Set<Integer> changedPositions;
+    private File writeDir;
+    private File readDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        flags = Entities.flags(entityCount, 42);
+        index = Entities.index(flags);
+        // Every 100th flag, as if 1% had changed since the previous build
+        changedPositions = new HashSet<>();
+        for (int i = 0; i < entityCount; i += 100) {
+            changedPositions.add(i);
+        }
+        writeDir = Files.createTempDirectory("persistence-write").toFile();
+        readDir = Files.createTempDirectory("persistence-read").toFile();
+        DataPersister.writeValues(readDir, ENVIRONMENT, DataPersister.EntityType.FLAG, flags.iterator());
+        DataPersister.writeIndex(readDir, ENVIRONMENT, DataPersister.EntityType.FLAG, index);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(writeDir);
+        FileUtils.deleteDirectory(readDir);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        int count = DataPersister.writeValues(writeDir, ENVIRONMENT, DataPersister.EntityType.FLAG, flags.iterator());
+        DataPersister.writeIndex(writeDir, ENVIRONMENT, DataPersister.EntityType.FLAG, index);
+        return count;
+    }
+
+    @Benchmark
+    public List<Flag> read() throws IOException {
+        return DataPersister.readValue(readDir, ENVIRONMENT, DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, Collections.emptyList());
+    }
+
+    @Benchmark
+    public Map<Integer, Flag> readChanged() throws IOException {
+        return DataPersister.readValues(readDir, ENVIRONMENT, DataPersister.EntityType.FLAG, Flag.class, changedPositions);
+    }
+
+    @Benchmark
+    public EntityIndex readIndex() throws IOException {
+        return DataPersister.readIndex(readDir, ENVIRONMENT, DataPersister.EntityType.FLAG);
+    }
+}
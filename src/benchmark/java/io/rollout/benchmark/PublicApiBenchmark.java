@@ -0,0 +1,64 @@
+package io.rollout.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rollout.publicapi.PublicApi;
+import io.rollout.publicapi.model.Flag;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Deserializes a Public API flags response. The response is served from memory by an interceptor, so this measures the client and the
+ * parsing, not the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PublicApiBenchmark {
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    @Param({"100", "10000", "100000"})
+    public int entityCount;
+
+    private PublicApi publicApi;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] body = new ObjectMapper().writeValueAsBytes(Entities.flags(entityCount, 42));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(chain -> new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .body(ResponseBody.create(JSON, body))
+                        .build())
+                .build();
+        publicApi = new PublicApi(client);
+    }
+
+    @Benchmark
+    public List<Flag> getFlags() throws IOException {
+        return publicApi.getFlags("token", "application", "environment");
+    }
+
+    @Benchmark
+    public int forEachFlag(Blackhole blackhole) throws IOException {
+        return publicApi.forEachFlag("token", "application", "environment", blackhole::consume);
+    }
+}
@@ -0,0 +1,68 @@
+package io.rollout.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.Flag;
+import io.rollout.publicapi.model.SnapshotFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares writing and reading a large set of flags in each {@link SnapshotFormat}. The size of each file is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotFormatBenchmark {
+    private static final String ENVIRONMENT = "benchmark";
+
+    @Param({"1000", "10000"})
+    public int flagCount;
+
+    @Param({"PRETTY_JSON", "JSON", "JSON_GZIP", "SMILE", "SMILE_GZIP"})
+    public SnapshotFormat format;
+
+    private List<Flag> flags;
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        flags = Entities.flags(flagCount, 42);
+        dir = Files.createTempDirectory("snapshot-format").toFile();
+        DataPersister.setFormat(format);
+        DataPersister.writeValue(dir, ENVIRONMENT, DataPersister.EntityType.FLAG, flags);
+        File file = DataPersister.find(dir, ENVIRONMENT, DataPersister.EntityType.FLAG);
+        System.out.printf("%n%s with %d flags: %,d bytes%n", format, flagCount, file.length());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DataPersister.setFormat(SnapshotFormat.PRETTY_JSON);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        DataPersister.writeValue(dir, ENVIRONMENT, DataPersister.EntityType.FLAG, flags);
+    }
+
+    @Benchmark
+    public List<Flag> read() throws IOException {
+        return DataPersister.readValue(dir, ENVIRONMENT, DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, Collections.emptyList());
+    }
+}
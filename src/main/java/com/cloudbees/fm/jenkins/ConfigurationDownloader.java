@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.rollout.publicapi.PublicApi;
+import io.rollout.publicapi.model.Application;
+import io.rollout.publicapi.model.AuditLog;
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Environment;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads the configuration of a single application/environment and saves it in the build directory
+ */
+class ConfigurationDownloader {
+    /**
+     * How long to wait for a cancelled request's callback to return
+     */
+    private static final long CALLBACK_TIMEOUT_SECONDS = 60;
+
+    private final Application application;
+    private final Environment environment;
+
+    ConfigurationDownloader(Application application, Environment environment) {
+        this.application = application;
+        this.environment = environment;
+    }
+
+    /**
+     * The number of entities that were downloaded
+     */
+    static final class Counts {
+        final int flags;
+        final int enabledFlags;
+        final int targetGroups;
+
+        Counts(int flags, int enabledFlags, int targetGroups) {
+            this.flags = flags;
+            this.enabledFlags = enabledFlags;
+            this.targetGroups = targetGroups;
+        }
+    }
+
+    Counts downloadAndSave(String apiToken, Run<?,?> run, TaskListener listener) throws IOException, InterruptedException {
+        Counts counts;
+        // Index the entities as they are written, so that later comparisons don't need to load the snapshots
+        EntityIndex.Builder flagIndex = new EntityIndex.Builder();
+        EntityIndex.Builder targetGroupIndex = new EntityIndex.Builder();
+        try (DataPersister.SnapshotWriter flagWriter = DataPersister.openWriter(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG);
+             DataPersister.SnapshotWriter targetGroupWriter = DataPersister.openWriter(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP)) {
+            // The flags and target groups don't depend on each other, so request them both at once.
+            // Each entity is written to disk as soon as it is parsed, so the full lists are never held in memory.
+            AtomicInteger enabledFlags = new AtomicInteger();
+            long start = System.nanoTime();
+            PublicApi.AsyncCall<Integer> flagsCall = PublicApi.getInstance().forEachFlagAsync(apiToken, application.getId(), environment.getName(), flag -> {
+                flagWriter.write(flag);
+                flagIndex.add(flag);
+                if (flag.isEnabled()) {
+                    enabledFlags.incrementAndGet();
+                }
+            });
+            PublicApi.AsyncCall<Integer> targetGroupsCall = PublicApi.getInstance().forEachTargetGroupAsync(apiToken, application.getId(), targetGroup -> {
+                targetGroupWriter.write(targetGroup);
+                targetGroupIndex.add(targetGroup);
+            });
+            CompletableFuture<Integer> flags = logTiming(flagsCall, listener, "flags", start);
+            CompletableFuture<Integer> targetGroups = logTiming(targetGroupsCall, listener, "target groups", start);
+
+            try {
+                if (run.getPreviousSuccessfulBuild() != null) {
+                    // Audit logs (to show changes) are only relevant when comparing against a previous (successful) build.
+                    // They are paged, so fetch them on this thread while the other requests are in flight.
+                    downloadAndSaveAuditLogs(apiToken, run, listener, run.getPreviousSuccessfulBuild().getTime());
+                }
+
+                counts = new Counts(await(flags), enabledFlags.get(), await(targetGroups));
+                listener.getLogger().printf("For %s/%s there are %d flags (%d enabled) and %d target groups\n", application.getName(), environment.getName(), counts.flags, counts.enabledFlags, counts.targetGroups);
+            } finally {
+                // Don't leave requests running against writers that are about to be closed. Cancelling doesn't stop a callback that is
+                // already writing on a dispatcher thread, so wait for it to return before the writers are closed under it.
+                flagsCall.cancel(true);
+                targetGroupsCall.cancel(true);
+                boolean stopped = flagsCall.awaitCallback(CALLBACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                stopped &= targetGroupsCall.awaitCallback(CALLBACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!stopped) {
+                    listener.getLogger().printf("Timed out waiting for the requests for %s/%s to stop\n", application.getName(), environment.getName());
+                }
+            }
+            // Only replace the saved snapshots once both have been downloaded in full. Otherwise they are discarded when the writers close.
+            flagWriter.commit();
+            targetGroupWriter.commit();
+        }
+        DataPersister.writeIndex(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG, flagIndex.build());
+        DataPersister.writeIndex(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP, targetGroupIndex.build());
+        return counts;
+    }
+
+    private void downloadAndSaveAuditLogs(String apiToken, Run<?,?> run, TaskListener listener, Date startDate) throws IOException {
+        // Stream the pages straight to disk, so that we never hold the whole history in memory
+        long start = System.nanoTime();
+        Iterator<AuditLog> auditLogs = PublicApi.getInstance().streamAuditLogs(apiToken, application.getId(), environment.getName(), startDate);
+        int count = DataPersister.writeValues(run.getRootDir(), environment.getKey(), DataPersister.EntityType.AUDIT_LOG, auditLogs);
+        listener.getLogger().printf("For %s/%s there were %d changes from the audit logs (fetched in %d ms)\n", application.getName(), environment.getName(), count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private <T> CompletableFuture<T> logTiming(CompletableFuture<T> call, TaskListener listener, String entities, long start) {
+        return call.whenComplete((count, error) -> {
+            if (error == null) {
+                listener.getLogger().printf("Fetched %s %s for %s/%s in %d ms\n", count, entities, application.getName(), environment.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+    }
+
+    /**
+     * Wait for the future, unwrapping the exception it failed with
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.rollout.configuration.comparison.ComparisonResult;
+import io.rollout.publicapi.model.ConfigEntity;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A single flag or target group that was added, deleted or changed between two builds
+ */
+public class EntityChange<T extends ConfigEntity> {
+    public enum Kind {
+        ADDED,
+        DELETED,
+        CHANGED
+    }
+
+    private final String name;
+    private String key;
+    private final Kind kind;
+    private final T before;
+    private final T after;
+
+    EntityChange(Kind kind, T before, T after) {
+        this.name = (after != null ? after : before).getName();
+        this.kind = kind;
+        this.before = before;
+        this.after = after;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return what identifies the change in its list: the name, unless other changes have the same name, in which case the later
+     * ones are {@code <name>#2}, {@code <name>#3} and so on, as in the comparison
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the entity in the earlier build, or null if it was added
+     */
+    @JsonIgnore
+    public T getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the entity in the later build, or null if it was deleted
+     */
+    @JsonIgnore
+    public T getAfter() {
+        return after;
+    }
+
+    /**
+     * List the changes in the comparison, sorted by name so that they can be paged through
+     */
+    static <T extends ConfigEntity> List<EntityChange<T>> of(ComparisonResult<T> comparisonResult) {
+        List<EntityChange<T>> changes = new ArrayList<>();
+        comparisonResult.getInSecondOnly().forEach(entity -> changes.add(new EntityChange<>(Kind.ADDED, null, entity)));
+        comparisonResult.getInFirstOnly().forEach(entity -> changes.add(new EntityChange<>(Kind.DELETED, entity, null)));
+        comparisonResult.getInBothButDifferent().forEach(pair -> changes.add(new EntityChange<>(Kind.CHANGED, pair.getLeft(), pair.getRight())));
+        changes.sort(Comparator.comparing(EntityChange::getName));
+        for (int i = 0, n = 1; i < changes.size(); i++) {
+            EntityChange<T> change = changes.get(i);
+            n = i > 0 && changes.get(i - 1).name.equals(change.name) ? n + 1 : 1;
+            change.key = n == 1 ? change.name : change.name + "#" + n;
+        }
+        return changes;
+    }
+}
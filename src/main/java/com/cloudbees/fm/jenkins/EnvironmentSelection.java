@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.util.ListBoxModel;
+import java.io.IOException;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.RelativePath;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * An application/environment pair to snapshot in a {@link FeatureManagementMultiConfigurationBuilder}. The environment can be
+ * {@link #ALL_ENVIRONMENTS} to snapshot every environment of the application.
+ */
+public class EnvironmentSelection extends AbstractDescribableImpl<EnvironmentSelection> {
+    public static final String ALL_ENVIRONMENTS = new IdAndName("*", "All environments").toString();
+
+    private final String applicationIdAndName;
+    private final String environmentIdAndName;
+
+    @DataBoundConstructor
+    public EnvironmentSelection(String applicationIdAndName, String environmentIdAndName) {
+        // Parse them up front, so that a bad value fails when the job is configured rather than when it is built
+        IdAndName.parse(applicationIdAndName);
+        IdAndName.parse(environmentIdAndName);
+        this.applicationIdAndName = applicationIdAndName;
+        this.environmentIdAndName = environmentIdAndName;
+    }
+
+    public String getApplicationIdAndName() {
+        return applicationIdAndName;
+    }
+
+    public String getEnvironmentIdAndName() {
+        return environmentIdAndName;
+    }
+
+    public boolean isAllEnvironments() {
+        return ALL_ENVIRONMENTS.equals(environmentIdAndName);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<EnvironmentSelection> {
+        @Override
+        @NonNull
+        public String getDisplayName() {
+            return "Application environment";
+        }
+
+        private static FeatureManagementConfigurationBuilder.DescriptorImpl builderDescriptor() {
+            return Jenkins.get().getDescriptorByType(FeatureManagementConfigurationBuilder.DescriptorImpl.class);
+        }
+
+        @POST
+        public ListBoxModel doFillApplicationIdAndNameItems(@RelativePath("..") @QueryParameter String credentialsId, @AncestorInPath Item item) throws IOException {
+            return builderDescriptor().doFillApplicationIdAndNameItems(credentialsId, item);
+        }
+
+        @POST
+        public ListBoxModel doFillEnvironmentIdAndNameItems(@RelativePath("..") @QueryParameter String credentialsId, @QueryParameter String applicationIdAndName, @AncestorInPath Item item) throws IOException {
+            ListBoxModel items = builderDescriptor().doFillEnvironmentIdAndNameItems(credentialsId, applicationIdAndName, item);
+            if (items != null && !items.isEmpty()) {
+                // Keep the empty value first
+                items.add(1, new ListBoxModel.Option("All environments", ALL_ENVIRONMENTS));
+            }
+            return items;
+        }
+    }
+}
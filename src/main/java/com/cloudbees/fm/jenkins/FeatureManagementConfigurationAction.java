@@ -29,30 +29,93 @@ import com.cloudbees.fm.jenkins.ui.AuditLogMessage;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.init.Terminator;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import io.rollout.configuration.comparison.ComparisonResult;
 import io.rollout.configuration.comparison.ConfigurationComparator;
+import io.rollout.configuration.diff.JsonTreeDiff;
+import io.rollout.metrics.Metrics;
 import io.rollout.publicapi.model.Application;
 import io.rollout.publicapi.model.AuditLog;
 import io.rollout.publicapi.model.ConfigEntity;
 import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.EntityIndex;
 import io.rollout.publicapi.model.Environment;
 import io.rollout.publicapi.model.Flag;
 import io.rollout.publicapi.model.TargetGroup;
-import java.io.FileInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import jenkins.model.RunAction2;
-import org.apache.commons.io.IOUtils;
+import jenkins.util.SystemProperties;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
 
 public class FeatureManagementConfigurationAction implements RunAction2 {
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writerWithDefaultPrettyPrinter();
+    private static final ObjectWriter COMPACT_JSON_WRITER = new ObjectMapper().writer();
+
+    /**
+     * Diffs of a single entity longer than this are cut short, unless the whole diff is asked for
+     */
+    static final int MAX_DIFF_LINES = SystemProperties.getInteger(FeatureManagementConfigurationAction.class.getName() + ".maxDiffLines", 500);
+    /**
+     * Whether changed entities are diffed by comparing their JSON trees, listing the values that changed at each path, rather than by
+     * comparing the lines of their pretty printed JSON
+     */
+    static final boolean STRUCTURAL_DIFF = SystemProperties.getBoolean(FeatureManagementConfigurationAction.class.getName() + ".structuralDiff", false);
+    /**
+     * The most characters of diff generated for all the flags or target groups. Entities after that are left out, and the diff of a
+     * single entity that is bigger than this on its own is cut short.
+     */
+    static final int MAX_DIFF_SIZE = SystemProperties.getInteger(FeatureManagementConfigurationAction.class.getName() + ".maxDiffSize", 16 * 1024 * 1024);
+    /**
+     * Diffs of fewer entities than this are generated on the calling thread
+     */
+    static final int PARALLEL_DIFF_THRESHOLD = 16;
+    /**
+     * Starts the note at the end of a diff that was cut short
+     */
+    static final String CUT_NOTE = "# The diff is too big to show.";
+    /**
+     * How many entities are diffed at once
+     */
+    static final int DIFF_PARALLELISM = Math.max(1, SystemProperties.getInteger(FeatureManagementConfigurationAction.class.getName() + ".diffParallelism", Runtime.getRuntime().availableProcessors()));
+    /**
+     * Created when there is first a diff big enough to need it
+     */
+    private static ForkJoinPool diffPool;
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
 
     private final Application application;
     private final Environment environment;
+    /**
+     * The number of the build the saved diffs were generated against (0 if there was no previous successful build), or null if they
+     * were never saved
+     */
+    private Integer diffBase;
     private transient Run<?, ?> run;
 
     FeatureManagementConfigurationAction(Application application, Environment environment) {
@@ -104,44 +167,83 @@ public class FeatureManagementConfigurationAction implements RunAction2 {
     }
 
     public String toJson(Object o) throws JsonProcessingException {
-        return o == null ? "" : new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(o);
+        return o == null ? "" : JSON_WRITER.writeValueAsString(o);
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Identifies the contents of a snapshot file without reading it. This changes if the file is rewritten, or if the build it belongs
+     * to changes (e.g. the previous successful build is deleted).
+     */
+    private Object version(Run<?, ?> run, DataPersister.EntityType entityType) {
+        if (run == null) {
+            return "none";
+        }
+        File file = DataPersister.findSource(run.getRootDir(), environment.getKey(), entityType);
+        if (file == null) {
+            return Arrays.asList(run.getNumber(), "missing");
+        }
+        return Arrays.asList(run.getNumber(), file.getName(), file.lastModified(), file.length());
+    }
+
+    /**
+     * Load from the snapshots of a build. The page asks for the same snapshots many times while it renders, so they are kept in the
+     * {@link SnapshotCache} for as long as the underlying files haven't changed.
+     */
+    private <T> T load(Run<?, ?> run, DataPersister.EntityType entityType, Loader<T> loader) throws IOException {
+        return SnapshotCache.get(Arrays.asList(run.getRootDir().getPath(), environment.getKey(), entityType, version(run, entityType)), loader::load);
     }
 
     private List<Flag> getFlags(Run<?, ?> run) throws IOException {
         if (run != null) {
-            return DataPersister.readValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, Collections.emptyList())
-                    .stream()
-                    .filter(Flag::isEnabled)
-                    .collect(Collectors.toList());
+            return load(run, DataPersister.EntityType.FLAG, () -> readFlags(run));
         } else {
             return Collections.emptyList();
         }
     }
 
-    public List<Flag> getFlags() throws IOException {
-        return getFlags(run);
+    /**
+     * Read the enabled flags of a build from disk, without going through the {@link SnapshotCache}
+     */
+    private List<Flag> readFlags(Run<?, ?> run) throws IOException {
+        if (run == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(DataPersister.readValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, Collections.<Flag>emptyList())
+                .stream()
+                .filter(Flag::isEnabled)
+                .collect(Collectors.toList()));
     }
 
-    private List<Flag> getPreviousSuccessfulFlags() throws IOException {
-        return getFlags(run.getPreviousSuccessfulBuild());
+    public List<Flag> getFlags() throws IOException {
+        return getFlags(run);
     }
 
     public List<TargetGroup> getTargetGroups() throws IOException {
         return getTargetGroups(run);
     }
 
-    private List<TargetGroup> getPreviousSuccessfulTargetGroups() throws IOException {
-        return getTargetGroups(run.getPreviousSuccessfulBuild());
-    }
-
     private List<TargetGroup> getTargetGroups(Run<?, ?> run) throws IOException {
         if (run != null) {
-            return DataPersister.readValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP, new TypeReference<List<TargetGroup>>() {}, Collections.emptyList());
+            return load(run, DataPersister.EntityType.TARGET_GROUP, () -> readTargetGroups(run));
         } else {
             return Collections.emptyList();
         }
     }
 
+    /**
+     * Read the target groups of a build from disk, without going through the {@link SnapshotCache}
+     */
+    private List<TargetGroup> readTargetGroups(Run<?, ?> run) throws IOException {
+        if (run == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(DataPersister.readValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP, new TypeReference<List<TargetGroup>>() {}, Collections.<TargetGroup>emptyList()));
+    }
+
     public List<AuditLog> getAuditLogs() throws IOException {
         List<AuditLog> logs = DataPersister.readValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.AUDIT_LOG, new TypeReference<List<AuditLog>>()
         {}, Collections.emptyList());
@@ -160,12 +262,45 @@ public class FeatureManagementConfigurationAction implements RunAction2 {
         return new AuditLogMessage(auditLog.getMessage());
     }
 
+    /**
+     * @deprecated this reads the whole file into memory, use the {@code raw} endpoint instead
+     */
+    @Deprecated
     public String getRawFlags() throws IOException {
-        return IOUtils.toString(new FileInputStream(DataPersister.filename(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG)), StandardCharsets.UTF_8);
+        return getRaw(DataPersister.EntityType.FLAG);
     }
 
+    /**
+     * @deprecated this reads the whole file into memory, use the {@code raw} endpoint instead
+     */
+    @Deprecated
     public String getRawTargetGroups() throws IOException {
-        return IOUtils.toString(new FileInputStream(DataPersister.filename(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP)), StandardCharsets.UTF_8);
+        return getRaw(DataPersister.EntityType.TARGET_GROUP);
+    }
+
+    private String getRaw(DataPersister.EntityType entityType) throws IOException {
+        // The snapshot may have been saved in a binary or compressed format, so always go through DataPersister to get JSON back
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!DataPersister.copyAsJson(run.getRootDir(), environment.getKey(), entityType, out)) {
+            throw new FileNotFoundException(DataPersister.filename(run.getRootDir(), environment.getKey(), entityType).getPath());
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stream a saved snapshot as JSON
+     *
+     * @param type {@code FLAG}, {@code TARGET_GROUP} or {@code AUDIT_LOG}
+     * @param download whether the browser should save the file rather than show it
+     */
+    @GET
+    public HttpResponse doRaw(@QueryParameter String type, @QueryParameter boolean download) {
+        for (DataPersister.EntityType entityType : DataPersister.EntityType.values()) {
+            if (entityType.name().equals(type)) {
+                return new SnapshotFileResponse(run.getRootDir(), environment.getKey(), entityType, download);
+            }
+        }
+        return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
     }
 
     public Run<?, ?> getPreviousSuccessfulBuild() {
@@ -177,63 +312,558 @@ public class FeatureManagementConfigurationAction implements RunAction2 {
     }
 
     public ComparisonResult<Flag> getFlagChanges() throws IOException {
-        return new ConfigurationComparator().compare(getPreviousSuccessfulFlags(), getFlags());
+        return getFlagChanges(run.getPreviousSuccessfulBuild());
     }
 
     public ComparisonResult<TargetGroup> getTargetGroupChanges() throws IOException {
-        return new ConfigurationComparator().compare(getPreviousSuccessfulTargetGroups(), getTargetGroups());
+        return getTargetGroupChanges(run.getPreviousSuccessfulBuild());
     }
 
-    public String generateDiff(ComparisonResult<? extends ConfigEntity> comparisonResult) {
-        // Generate a Unified Diff with all the entity changes
-        StringBuilder builder = new StringBuilder();
+    /**
+     * @param base the build to compare with, or null to compare with nothing
+     */
+    public ComparisonResult<Flag> getFlagChanges(Run<?, ?> base) throws IOException {
+        return changes(base, DataPersister.EntityType.FLAG, "changes", () ->
+                compare(base, DataPersister.EntityType.FLAG, Flag.class, () -> getFlags(base), this::getFlags));
+    }
 
-        // First get all the new elements
-        comparisonResult.getInSecondOnly().forEach(entity -> {
-            try {
-                String json = toJson(entity);
-                String diff = Diff.diff(new StringReader(""), new StringReader(json), true)
-                        .toUnifiedDiff(entity.getName(), entity.getName(), new StringReader(""), new StringReader(json), 100); // Don't use Integer.MAX_VALUE here, but give it a big enough value so that it shows the whole config
-                builder.append("diff\n")
-                        .append("new file mode 100666\n")
-                        .append(diff);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * @param base the build to compare with, or null to compare with nothing
+     */
+    public ComparisonResult<TargetGroup> getTargetGroupChanges(Run<?, ?> base) throws IOException {
+        return changes(base, DataPersister.EntityType.TARGET_GROUP, "changes", () ->
+                compare(base, DataPersister.EntityType.TARGET_GROUP, TargetGroup.class, () -> getTargetGroups(base), this::getTargetGroups));
+    }
+
+    /**
+     * Remember something worked out from comparing this build with another in the {@link SnapshotCache}, for as long as the snapshots
+     * of both builds haven't changed.
+     */
+    private <T> T changes(Run<?, ?> base, DataPersister.EntityType entityType, String what, Loader<T> loader) throws IOException {
+        return SnapshotCache.get(Arrays.asList(what, run.getRootDir().getPath(), environment.getKey(), entityType, version(base, entityType), version(run, entityType)), loader::load);
+    }
+
+    /**
+     * Compare this build with another. When both builds have an {@link EntityIndex}, only the entities that changed are loaded.
+     * Otherwise (for builds saved by older versions) the whole snapshots are loaded and compared.
+     */
+    private <T extends ConfigEntity> ComparisonResult<T> compare(Run<?, ?> previousBuild, DataPersister.EntityType entityType, Class<T> type,
+                                                                 Loader<List<T>> previous, Loader<List<T>> current) throws IOException {
+        EntityIndex previousIndex = previousBuild == null ? EntityIndex.EMPTY : DataPersister.readIndex(previousBuild.getRootDir(), environment.getKey(), entityType);
+        EntityIndex currentIndex = DataPersister.readIndex(run.getRootDir(), environment.getKey(), entityType);
+        if (previousIndex == null || currentIndex == null) {
+            return new ConfigurationComparator().compare(previous.load(), current.load());
+        }
+        // Only enabled flags are compared, in the same way as getFlags()
+        return new ConfigurationComparator().compare(
+                previousIndex.getEnabledEntries(), loader(previousBuild, entityType, type),
+                currentIndex.getEnabledEntries(), loader(run, entityType, type));
+    }
+
+    private <T> ConfigurationComparator.EntityLoader<T> loader(Run<?, ?> run, DataPersister.EntityType entityType, Class<T> type) {
+        return positions -> run == null ? Collections.emptyMap() : DataPersister.readValues(run.getRootDir(), environment.getKey(), entityType, type, positions);
+    }
+
+    /**
+     * @return the number of enabled flags, read from the index where possible
+     */
+    public int getFlagCount() throws IOException {
+        EntityIndex index = DataPersister.readIndex(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG);
+        return index == null ? getFlags().size() : index.getEnabledEntries().size();
+    }
+
+    /**
+     * @return the number of target groups, read from the index where possible
+     */
+    public int getTargetGroupCount() throws IOException {
+        EntityIndex index = DataPersister.readIndex(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP);
+        return index == null ? getTargetGroups().size() : index.getEntries().size();
+    }
+
+    /**
+     * @return the build of this job with the given number, or null if there is no such build, or it has no configuration for this
+     * environment
+     */
+    public Run<?, ?> getBuild(String number) {
+        int n;
+        try {
+            n = Integer.parseInt(number == null ? "" : number.trim().replaceFirst("^#", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Run<?, ?> build = run.getParent().getBuildByNumber(n);
+        if (build == null || build == run || !DataPersister.exists(build.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG)) {
+            return null;
+        }
+        return build;
+    }
+
+    /**
+     * @return the build to compare with: the given build if there is one, otherwise the previous successful build
+     */
+    private Run<?, ?> base(String build) {
+        return build == null || build.isEmpty() ? run.getPreviousSuccessfulBuild() : getBuild(build);
+    }
+
+    public String getFlagDiff() throws IOException {
+        return getDiff(DataPersister.EntityType.FLAG, this::getFlagChanges);
+    }
+
+    public String getTargetGroupDiff() throws IOException {
+        return getDiff(DataPersister.EntityType.TARGET_GROUP, this::getTargetGroupChanges);
+    }
+
+    private String getDiff(DataPersister.EntityType entityType, Loader<ComparisonResult<? extends ConfigEntity>> changes) throws IOException {
+        if (hasSavedDiff()) {
+            String diff = DataPersister.readDiff(run.getRootDir(), environment.getKey(), entityType);
+            if (diff != null) {
+                return diff;
             }
-        });
+        }
+        return changes(run.getPreviousSuccessfulBuild(), entityType, "diff", () -> generateDiff(changes.load()));
+    }
 
-        // Now get all the deleted elements
-        comparisonResult.getInFirstOnly().forEach(entity -> {
-            try {
-                String json = toJson(entity);
-                String diff = Diff.diff(new StringReader(json), new StringReader(""), true)
-                        .toUnifiedDiff(entity.getName(), entity.getName(), new StringReader(json), new StringReader(""), 100); // Don't use Integer.MAX_VALUE here, but give it a big enough value so that it shows the whole config
-                builder.append("diff\n")
-                        .append("deleted file mode 100666\n")
-                        .append(diff);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * The saved diff is only good for as long as the build it was generated against is still the previous successful build
+     */
+    private boolean hasSavedDiff() {
+        return diffBase != null && diffBase == getPreviousSuccessfulBuildNumber();
+    }
+
+    /**
+     * Read the diff of a single entity from the saved diff, without reading any further than its end
+     *
+     * @return the diff, or null if there is no saved diff, or the entity isn't in it (e.g. it was left out of a diff that was too big)
+     */
+    private String readSavedDiff(DataPersister.EntityType entityType, String name) throws IOException {
+        File file = DataPersister.diffFilename(run.getRootDir(), environment.getKey(), entityType);
+        if (!hasSavedDiff() || !file.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return sliceDiff(reader, name);
+        }
+    }
+
+    /**
+     * Find the diff of a single entity in the diff of them all. Each entity's diff starts with a {@code diff} line, followed by its
+     * {@code ---} line within the next two lines. No other line of a diff can be either, as the lines of the entities are prefixed.
+     */
+    static String sliceDiff(BufferedReader reader, String name) throws IOException {
+        String header = "--- " + name;
+        StringBuilder section = new StringBuilder();
+        boolean found = false;
+        boolean skip = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals("diff")) {
+                if (found) {
+                    break;
+                }
+                section.setLength(0);
+                skip = false;
+            } else if (line.startsWith("#")) {
+                // The note that the rest of the diff was left out. If this entity's diff was cut short, it has to be generated in full.
+                if (found && line.startsWith(CUT_NOTE + " The rest of ")) {
+                    return null;
+                }
+                break;
+            } else if (skip) {
+                continue;
+            } else if (!found && line.startsWith("--- ")) {
+                found = line.equals(header);
+                skip = !found;
             }
-        });
+            section.append(line).append('\n');
+        }
+        return found ? section.toString() : null;
+    }
+
+    private int getPreviousSuccessfulBuildNumber() {
+        Run<?, ?> previous = run.getPreviousSuccessfulBuild();
+        return previous == null ? 0 : previous.getNumber();
+    }
 
-        // Now get all the changed elements
-        comparisonResult.getInBothButDifferent().stream()
-            .forEach(entity -> {
-                try {
-                    String left = toJson(entity.getLeft()).trim();
-                    String right = toJson(entity.getRight()).trim();
-                    String name = entity.getLeft().getName();
-
-                    String diff = Diff.diff(new StringReader(left), new StringReader(right), true)
-                            .toUnifiedDiff(name, name, new StringReader(left), new StringReader(right), 100); // Don't use Integer.MAX_VALUE here, but give it a big enough value so that it shows the whole config
-                    builder.append("diff\n").append(diff);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+    /**
+     * Work out the diffs against the previous successful build and save them with the snapshots. The diffs never change once the build
+     * has completed, so this saves working them out every time the page is viewed. Must be called once the action is attached.
+     * <p>
+     * The snapshots and comparisons are worked out here without going through the {@link SnapshotCache}: the diffs are written
+     * straight to disk, and the pages read them from there, so keeping what they were worked out from would only push out entries that
+     * are being viewed.
+     */
+    void saveDiffs(TaskListener listener) {
+        try {
+            Run<?, ?> previous = run.getPreviousSuccessfulBuild();
+            int base = getPreviousSuccessfulBuildNumber();
+            DataPersister.writeDiff(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG,
+                    generateDiff(compare(previous, DataPersister.EntityType.FLAG, Flag.class, () -> readFlags(previous), () -> readFlags(run))));
+            DataPersister.writeDiff(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP,
+                    generateDiff(compare(previous, DataPersister.EntityType.TARGET_GROUP, TargetGroup.class, () -> readTargetGroups(previous), () -> readTargetGroups(run))));
+            diffBase = base;
+        } catch (IOException | RuntimeException e) {
+            // Not fatal, the diffs will be worked out when the page is viewed
+            listener.getLogger().printf("Could not save the configuration changes for %s/%s: %s\n", application.getName(), environment.getName(), e);
+        }
+    }
+
+    /**
+     * Save the flags and target groups as deltas against the previous successful build, if deltas are turned on. Must be called once
+     * the action is attached.
+     */
+    void saveDeltas(TaskListener listener) {
+        Run<?, ?> base = run.getPreviousSuccessfulBuild();
+        if (base == null || DataPersister.getKeyframeInterval() <= 1) {
+            return;
+        }
+        for (DataPersister.EntityType entityType : Arrays.asList(DataPersister.EntityType.FLAG, DataPersister.EntityType.TARGET_GROUP)) {
+            try {
+                if (DataPersister.writeDelta(run.getRootDir(), base.getRootDir(), environment.getKey(), entityType)) {
+                    listener.getLogger().printf("Saved the %s of %s/%s as the changes since build #%d\n", entityType == DataPersister.EntityType.FLAG ? "flags" : "target groups",
+                            application.getName(), environment.getName(), base.getNumber());
                 }
+            } catch (IOException | RuntimeException e) {
+                // Not fatal, the snapshot is still saved in full
+                listener.getLogger().printf("Could not save the changes for %s/%s: %s\n", application.getName(), environment.getName(), e);
+            }
+        }
+    }
+
+    public String generateDiff(ComparisonResult<? extends ConfigEntity> comparisonResult) {
+        return generateDiff(comparisonResult, MAX_DIFF_SIZE);
+    }
 
-            });
+    /**
+     * @param maxSize the most characters of diff to generate. The entities after that are left out, and if the first entity's diff is
+     * too big on its own, it is cut short.
+     */
+    String generateDiff(ComparisonResult<? extends ConfigEntity> comparisonResult, int maxSize) {
+        long start = System.nanoTime();
+        // Generate a Unified Diff with all the entity changes, sorted by name so that it is the same every time
+        List<? extends EntityChange<?>> changes = EntityChange.of(comparisonResult);
+        StringBuilder builder = new StringBuilder();
 
+        // The entities are diffed a batch at a time, in parallel, so that no more than a batch is wasted once the output is too big
+        int batchSize = Math.max(PARALLEL_DIFF_THRESHOLD, DIFF_PARALLELISM * 16);
+        int done = 0;
+        boolean full = false;
+        boolean cut = false;
+        while (done < changes.size() && !full) {
+            List<? extends EntityChange<?>> batch = changes.subList(done, Math.min(done + batchSize, changes.size()));
+            for (String diff : generateDiffs(batch, builder.length(), maxSize)) {
+                if (diff == null || builder.length() + diff.length() > maxSize) {
+                    if (diff != null && builder.length() == 0) {
+                        // Show as many whole lines as fit
+                        builder.append(diff, 0, diff.lastIndexOf('\n', maxSize - 1) + 1);
+                        cut = true;
+                        done++;
+                    }
+                    full = true;
+                    break;
+                }
+                builder.append(diff);
+                done++;
+            }
+        }
+        if (cut) {
+            builder.append(String.format(CUT_NOTE + " The rest of %s and %d more changes are not shown.\n", changes.get(0).getName(), changes.size() - done));
+        } else if (done < changes.size()) {
+            builder.append(String.format(CUT_NOTE + " %d more changes are not shown.\n", changes.size() - done));
+        }
+
+        Metrics.histogram("diff.duration", Metrics.NANOSECONDS).recordSince(start);
+        Metrics.histogram("diff.entities", Metrics.ENTITIES).record(changes.size());
         return builder.toString();
     }
 
+    /**
+     * Generate the diffs of the entities, in the same order. Each entity is diffed on its own, so big lists are diffed in parallel.
+     * An entity isn't diffed once the diffs before it are known to be more than {@code maxSize} between them. Only the entities before
+     * it are counted, so which entities are diffed doesn't depend on the order they happen to be diffed in.
+     *
+     * @param offset the size of the diffs before these
+     * @return the diffs, with null for each entity that wasn't diffed
+     */
+    private List<String> generateDiffs(List<? extends EntityChange<?>> changes, long offset, int maxSize) {
+        AtomicLongArray sizes = new AtomicLongArray(changes.size());
+        IntFunction<String> generate = i -> {
+            // The diffs before this one that haven't been generated yet count as empty, so this never skips one that would be shown
+            long before = offset;
+            for (int j = 0; j < i && before <= maxSize; j++) {
+                before += sizes.get(j);
+            }
+            if (before > maxSize) {
+                return null;
+            }
+            String diff = generateDiff(changes.get(i));
+            sizes.set(i, diff.length());
+            return diff;
+        };
+        if (changes.size() < PARALLEL_DIFF_THRESHOLD || DIFF_PARALLELISM == 1) {
+            return IntStream.range(0, changes.size()).mapToObj(generate).collect(Collectors.toList());
+        }
+        // A parallel stream started from inside the pool runs on that pool rather than the common pool
+        return getDiffPool().invoke(ForkJoinTask.adapt(() -> IntStream.range(0, changes.size()).parallel().mapToObj(generate).collect(Collectors.toList())));
+    }
+
+    private static synchronized ForkJoinPool getDiffPool() {
+        if (diffPool == null) {
+            diffPool = new ForkJoinPool(DIFF_PARALLELISM, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("CloudBees Feature Management diff " + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return diffPool;
+    }
+
+    @Terminator
+    public static synchronized void shutdownDiffPool() {
+        if (diffPool != null) {
+            diffPool.shutdownNow();
+            diffPool = null;
+        }
+    }
+
+    private String generateDiff(EntityChange<?> change) {
+        return generateDiff(change.getName(), change.getBefore(), change.getAfter());
+    }
+
+    /**
+     * Generate the unified diff of a single entity
+     *
+     * @param before the entity in the previous build, or null if it is new
+     * @param after the entity in this build, or null if it was deleted
+     */
+    private String generateDiff(String name, ConfigEntity before, ConfigEntity after) {
+        if (STRUCTURAL_DIFF && before != null && after != null) {
+            return "diff\n" + JsonTreeDiff.toUnifiedDiff(name, JsonTreeDiff.diff(before, after));
+        }
+        try {
+            String left = before == null ? "" : toJson(before).trim();
+            String right = after == null ? "" : toJson(after).trim();
+
+            String diff = Diff.diff(new StringReader(left), new StringReader(right), true)
+                    .toUnifiedDiff(name, name, new StringReader(left), new StringReader(right), 100); // Don't use Integer.MAX_VALUE here, but give it a big enough value so that it shows the whole config
+            StringBuilder builder = new StringBuilder("diff\n");
+            if (before == null) {
+                builder.append("new file mode 100666\n");
+            } else if (after == null) {
+                builder.append("deleted file mode 100666\n");
+            }
+            return builder.append(diff).toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    List<? extends EntityChange<?>> getChangeList(DataPersister.EntityType entityType) throws IOException {
+        return getChangeList(entityType, run.getPreviousSuccessfulBuild());
+    }
+
+    List<? extends EntityChange<?>> getChangeList(DataPersister.EntityType entityType, Run<?, ?> base) throws IOException {
+        switch (entityType) {
+            case FLAG:
+                return changes(base, entityType, "changelist", () -> EntityChange.of(getFlagChanges(base)));
+            case TARGET_GROUP:
+                return changes(base, entityType, "changelist", () -> EntityChange.of(getTargetGroupChanges(base)));
+            default:
+                throw new IllegalArgumentException("There are no changes for " + entityType);
+        }
+    }
+
+    private static DataPersister.EntityType changeType(String type) {
+        if (DataPersister.EntityType.FLAG.name().equals(type)) {
+            return DataPersister.EntityType.FLAG;
+        } else if (DataPersister.EntityType.TARGET_GROUP.name().equals(type)) {
+            return DataPersister.EntityType.TARGET_GROUP;
+        } else {
+            return null;
+        }
+    }
+
+    private static HttpResponse json(Object body) {
+        return (req, rsp, node) -> {
+            rsp.setContentType("application/json;charset=UTF-8");
+            COMPACT_JSON_WRITER.writeValue(rsp.getOutputStream(), body);
+        };
+    }
+
+    private HttpResponse unknownBuild(String build) {
+        return HttpResponses.errorWithoutStack(404, "Build #" + build + " has no configuration for " + application.getName() + "/" + environment.getName());
+    }
+
+    /**
+     * A page of the flags or target groups that changed since the previous successful build (or the given build), sorted by name.
+     * Used by the configuration and compare pages to list the changes without rendering any diffs up front.
+     *
+     * @param type {@code FLAG} or {@code TARGET_GROUP}
+     * @param build the number of the build to compare with, if not the previous successful build
+     */
+    @GET
+    public HttpResponse doChanges(@QueryParameter String type, @QueryParameter String build, @QueryParameter int offset, @QueryParameter int limit) throws IOException {
+        DataPersister.EntityType entityType = changeType(type);
+        if (entityType == null) {
+            return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
+        }
+        Run<?, ?> base = base(build);
+        if (base == null && build != null && !build.isEmpty()) {
+            return unknownBuild(build);
+        }
+        List<? extends EntityChange<?>> changes = getChangeList(entityType, base);
+        int from = Math.min(Math.max(offset, 0), changes.size());
+        int size = limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        int to = Math.min(from + size, changes.size());
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("base", base == null ? null : base.getNumber());
+        body.put("total", changes.size());
+        body.put("offset", from);
+        body.put("changes", changes.subList(from, to));
+        return json(body);
+    }
+
+    /**
+     * The whole unified diff of the flags or target groups, as a download
+     *
+     * @param type {@code FLAG} or {@code TARGET_GROUP}
+     * @param build the number of the build to compare with, if not the previous successful build
+     */
+    @GET
+    public HttpResponse doUnifiedDiff(@QueryParameter String type, @QueryParameter String build) throws IOException {
+        DataPersister.EntityType entityType = changeType(type);
+        if (entityType == null) {
+            return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
+        }
+        String diff;
+        String filename = environment.getKey() + "-" + entityType;
+        if (build == null || build.isEmpty()) {
+            diff = entityType == DataPersister.EntityType.FLAG ? getFlagDiff() : getTargetGroupDiff();
+        } else {
+            Run<?, ?> base = getBuild(build);
+            if (base == null) {
+                return unknownBuild(build);
+            }
+            diff = generateDiff(entityType == DataPersister.EntityType.FLAG ? getFlagChanges(base) : getTargetGroupChanges(base));
+            filename += "-" + base.getNumber() + "-" + run.getNumber();
+        }
+        String attachment = filename + ".diff";
+        return (req, rsp, node) -> {
+            rsp.setContentType("text/x-diff;charset=UTF-8");
+            rsp.setHeader("Content-Disposition", "attachment; filename=" + attachment);
+            rsp.getOutputStream().write(diff.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    /**
+     * The unified diff of a single flag or target group. Diffs longer than {@link #MAX_DIFF_LINES} are cut short unless {@code full}
+     * is set, so that one huge entity can't stall the page.
+     *
+     * @param type {@code FLAG} or {@code TARGET_GROUP}
+     * @param build the number of the build to compare with, if not the previous successful build
+     * @param key the {@link EntityChange#getKey() key} of the change, as listed by {@link #doChanges}
+     */
+    @GET
+    public HttpResponse doEntityDiff(@QueryParameter String type, @QueryParameter String build, @QueryParameter String key, @QueryParameter boolean full) throws IOException {
+        DataPersister.EntityType entityType = changeType(type);
+        if (entityType == null) {
+            return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
+        }
+        Run<?, ?> base = base(build);
+        if (base == null && build != null && !build.isEmpty()) {
+            return unknownBuild(build);
+        }
+        List<? extends EntityChange<?>> changes = getChangeList(entityType, base);
+        EntityChange<?> change = find(changes, key);
+        if (change == null) {
+            return HttpResponses.notFound();
+        }
+
+        // The diff against the previous successful build was saved with the build, so it only needs to be generated for other builds.
+        // The saved diff can't tell entities with the same name apart, so theirs are always generated.
+        boolean uniqueName = changes.stream().filter(c -> c.getName().equals(change.getName())).count() == 1;
+        String diff = uniqueName && base == run.getPreviousSuccessfulBuild() ? readSavedDiff(entityType, change.getName()) : null;
+        if (diff == null) {
+            diff = generateDiff(change.getName(), change.getBefore(), change.getAfter());
+        }
+        int lines = 0;
+        int cut = -1;
+        for (int i = 0; i < diff.length(); i++) {
+            if (diff.charAt(i) == '\n' && ++lines == MAX_DIFF_LINES) {
+                cut = i + 1;
+            }
+        }
+        boolean truncated = !full && cut > 0 && cut < diff.length();
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("name", change.getName());
+        body.put("key", change.getKey());
+        body.put("kind", change.getKind());
+        body.put("lines", lines);
+        body.put("truncated", truncated);
+        body.put("diff", truncated ? diff.substring(0, cut) : diff);
+        return json(body);
+    }
+
+    /**
+     * The changes to a single flag or target group as a JSON Patch (RFC 6902), which turns the entity in the base build into the one
+     * in this build
+     *
+     * @param type {@code FLAG} or {@code TARGET_GROUP}
+     * @param build the number of the build to compare with, if not the previous successful build
+     * @param key the {@link EntityChange#getKey() key} of the change, as listed by {@link #doChanges}
+     */
+    @GET
+    public HttpResponse doEntityPatch(@QueryParameter String type, @QueryParameter String build, @QueryParameter String key) throws IOException {
+        DataPersister.EntityType entityType = changeType(type);
+        if (entityType == null) {
+            return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
+        }
+        Run<?, ?> base = base(build);
+        if (base == null && build != null && !build.isEmpty()) {
+            return unknownBuild(build);
+        }
+        EntityChange<?> change = find(getChangeList(entityType, base), key);
+        if (change == null) {
+            return HttpResponses.notFound();
+        }
+        List<Map<String, Object>> patch = JsonTreeDiff.toJsonPatch(JsonTreeDiff.diff(change.getBefore(), change.getAfter()));
+        return (req, rsp, node) -> {
+            rsp.setContentType("application/json-patch+json;charset=UTF-8");
+            COMPACT_JSON_WRITER.writeValue(rsp.getOutputStream(), patch);
+        };
+    }
+
+    private static EntityChange<?> find(List<? extends EntityChange<?>> changes, String key) {
+        return changes.stream().filter(c -> c.getKey().equals(key)).findFirst().orElse(null);
+    }
+
+    /**
+     * How the flags and target groups of this build differ from those of another build, as JSON. The changes themselves are listed
+     * by {@link #doChanges} and {@link #doEntityDiff} with the same {@code build}.
+     *
+     * @param build the number of the build to compare with
+     */
+    @GET
+    public HttpResponse doComparison(@QueryParameter String build) throws IOException {
+        Run<?, ?> base = getBuild(build);
+        if (base == null) {
+            return unknownBuild(build);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("build", run.getNumber());
+        body.put("base", base.getNumber());
+        body.put("flags", counts(getFlagChanges(base)));
+        body.put("targetGroups", counts(getTargetGroupChanges(base)));
+        return json(body);
+    }
+
+    private static Map<String, Integer> counts(ComparisonResult<?> changes) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("added", changes.getInSecondOnly().size());
+        counts.put("deleted", changes.getInFirstOnly().size());
+        counts.put("changed", changes.getInBothButDifferent().size());
+        counts.put("unchanged", changes.getInBothAndTheSameCount());
+        return counts;
+    }
 }
@@ -32,6 +32,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.init.Terminator;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
 import hudson.model.Result;
@@ -41,25 +42,27 @@ import hudson.security.ACL;
 import hudson.security.Permission;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
-import io.rollout.publicapi.PublicApi;
+import hudson.util.NamingThreadFactory;
+import io.rollout.publicapi.ApplicationCache;
+import io.rollout.publicapi.CredentialValidator;
 import io.rollout.publicapi.model.Application;
-import io.rollout.publicapi.model.AuditLog;
 import io.rollout.publicapi.model.DataPersister;
 import io.rollout.publicapi.model.Environment;
-import io.rollout.publicapi.model.Flag;
-import io.rollout.publicapi.model.TargetGroup;
 import java.io.IOException;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
+import jenkins.util.SystemProperties;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
@@ -100,48 +103,74 @@ public class FeatureManagementConfigurationBuilder extends Builder implements Si
     @Override
     public void perform(@NonNull Run<?, ?> run, @NonNull FilePath workspace, @NonNull Launcher launcher,
                         @NonNull TaskListener listener)
-            throws IOException {
+            throws InterruptedException, IOException {
 
         try {
-            String apiToken = ((DescriptorImpl) getDescriptor()).getApiToken(credentialsId);
-            downloadAndSaveFlags(apiToken, run, listener);
-            if (run.getPreviousSuccessfulBuild() != null) {
-                // Audit logs (to show changes) are only relevant when comparing against a previous (successful) build.
-                downloadAndSaveAuditLogs(apiToken, run, listener, run.getPreviousSuccessfulBuild().getTime());
-            }
-            run.addAction(new FeatureManagementConfigurationAction(application, environment));
+            String apiToken = DescriptorImpl.getApiToken(credentialsId);
+            ConfigurationDownloader.Counts counts = new ConfigurationDownloader(application, environment).downloadAndSave(apiToken, run, listener);
+            FeatureManagementConfigurationAction action = new FeatureManagementConfigurationAction(application, environment);
+            run.addAction(action);
+            action.saveDiffs(listener);
+            FlagTrend.record(run, action, counts, listener);
+            action.saveDeltas(listener);
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             listener.getLogger().printf("Error fetching flag configurations: %s\n", e);
             run.setResult(Result.UNSTABLE);
         }
     }
 
-    private void downloadAndSaveFlags(String apiToken, Run<?,?> run, TaskListener listener) throws IOException {
-        // Download and save the flags and target groups from the public API
-        List<Flag> flags = PublicApi.getInstance().getFlags(apiToken, application.getId(), environment.getName());
-        List<TargetGroup> targetGroups = PublicApi.getInstance().getTargetGroups(apiToken, application.getId());
-
-        // Save the flags and target groups to disk
-        DataPersister.writeValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.FLAG, flags);
-        DataPersister.writeValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.TARGET_GROUP, targetGroups);
-
-        listener.getLogger().printf("For %s/%s there are %d flags (%d enabled) and %d target groups\n", application.getName(), environment.getName(), flags.size(), flags.stream().filter(Flag::isEnabled).count(), targetGroups.size());
-    }
-
-    private void downloadAndSaveAuditLogs(String apiToken, Run<?,?> run, TaskListener listener, Date startDate) throws IOException {
-        List<AuditLog> auditLogs = PublicApi.getInstance().getAuditLogs(apiToken, application.getId(), environment.getName(), startDate);
-        DataPersister.writeValue(run.getRootDir(), environment.getKey(), DataPersister.EntityType.AUDIT_LOG, auditLogs);
-        listener.getLogger().printf("For %s/%s there were %d changes from the audit logs\n", application.getName(), environment.getName(), auditLogs.size());
-    }
-
     @Symbol("featureManagementConfig")
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
 
         private static final Logger LOGGER = Logger.getLogger(DescriptorImpl.class.getName());
 
-        private final transient Set<String> validCredentialIds = new HashSet<>();
-        private final transient Set<String> invalidCredentialIds = new HashSet<>();
+        static final long VALID_CREDENTIAL_TTL = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".validCredentialTtl", TimeUnit.MINUTES.toSeconds(30));
+        static final long INVALID_CREDENTIAL_TTL = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".invalidCredentialTtl", TimeUnit.MINUTES.toSeconds(5));
+        static final long FAILED_CREDENTIAL_CHECK_TTL = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".failedCredentialCheckTtl", 30L);
+        static final int CREDENTIAL_CACHE_SIZE = SystemProperties.getInteger(FeatureManagementConfigurationBuilder.class.getName() + ".credentialCacheSize", 256);
+        // How long doCheckCredentialsId waits for a check before reporting that it is still running
+        static final long CREDENTIAL_CHECK_WAIT_MILLIS = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".credentialCheckWaitMillis", 500L);
+
+        // Drop downs are served from the cache and refreshed in the background once they are this old
+        static final long APPLICATION_CACHE_REFRESH = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".applicationCacheRefresh", 60L);
+        // ...and loaded again while the page waits once they are this old
+        static final long APPLICATION_CACHE_EXPIRY = SystemProperties.getLong(FeatureManagementConfigurationBuilder.class.getName() + ".applicationCacheExpiry", TimeUnit.HOURS.toSeconds(1));
+        static final int APPLICATION_CACHE_SIZE = SystemProperties.getInteger(FeatureManagementConfigurationBuilder.class.getName() + ".applicationCacheSize", 256);
+
+        /**
+         * How many credential checks and drop down refreshes can run at once. They call the API, which can keep them waiting for
+         * minutes when it is rate limited, so they have threads of their own rather than holding up Jenkins' shared
+         * {@link jenkins.util.Timer}.
+         */
+        static final int BACKGROUND_THREADS = SystemProperties.getInteger(FeatureManagementConfigurationBuilder.class.getName() + ".backgroundThreads", 2);
+
+        private static ExecutorService backgroundExecutor;
+
+        private final transient ApplicationCache applicationCache = new ApplicationCache(DescriptorImpl::runInBackground,
+                APPLICATION_CACHE_REFRESH, APPLICATION_CACHE_EXPIRY, TimeUnit.SECONDS, APPLICATION_CACHE_SIZE);
+        private final transient CredentialValidator credentialValidator = new CredentialValidator(DescriptorImpl::runInBackground,
+                VALID_CREDENTIAL_TTL, INVALID_CREDENTIAL_TTL, FAILED_CREDENTIAL_CHECK_TTL, TimeUnit.SECONDS, CREDENTIAL_CACHE_SIZE);
+
+        private static synchronized void runInBackground(Runnable command) {
+            if (backgroundExecutor == null) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                        new NamingThreadFactory(new DaemonThreadFactory(), FeatureManagementConfigurationBuilder.class.getSimpleName()));
+                pool.allowCoreThreadTimeOut(true);
+                backgroundExecutor = pool;
+            }
+            backgroundExecutor.execute(command);
+        }
+
+        @Terminator
+        public static synchronized void shutdown() {
+            if (backgroundExecutor != null) {
+                backgroundExecutor.shutdownNow();
+                backgroundExecutor = null;
+            }
+        }
 
         @Override
         @NonNull
@@ -189,27 +218,75 @@ public class FeatureManagementConfigurationBuilder extends Builder implements Si
             }
             item.checkPermission(Item.CONFIGURE);
 
+            if (StringUtils.isBlank(credentialsId)) {
+                return FormValidation.ok();
+            }
+
             // Checking whether the credential is valid is a PITA as CBFM rate limits the API calls
-            // Also, this method gets called many times and that overloads the API rate limits. Use a stored list of valid or invalid IDs.
-            if (validCredentialIds.contains(credentialsId) || StringUtils.isBlank(credentialsId)) {
+            // Also, this method gets called many times and that overloads the API rate limits, so results are cached.
+            // The check runs in the background so a slow or throttled API doesn't hold up the form.
+            String apiToken;
+            try {
+                apiToken = getApiToken(credentialsId);
+            } catch (RuntimeException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            CredentialValidator.Result result;
+            try {
+                result = credentialValidator.validate(credentialsId, apiToken, () -> applicationCache.listApplications(apiToken),
+                        CREDENTIAL_CHECK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return FormValidation.ok();
-            } else if (invalidCredentialIds.contains(credentialsId)) {
-                return FormValidation.error("API Token is invalid");
-            } else {
-                // We have not checked the credential yet. Check it now by listing applications
-                try {
-                    PublicApi.getInstance().listApplications(getApiToken(credentialsId));
-                    validCredentialIds.add(credentialsId);
+            }
+            switch (result.getState()) {
+                case VALID:
                     return FormValidation.ok();
-                } catch (Exception e) {
-                    LOGGER.log(Level.SEVERE, "API token is invalid", e);
-                    invalidCredentialIds.add(credentialsId);
-                    return FormValidation.error("API token is invalid", e);
-                }
+                case INVALID:
+                    applicationCache.invalidate(apiToken);
+                    LOGGER.log(Level.FINE, "API token {0} is invalid: {1}", new Object[]{credentialsId, result.getMessage()});
+                    return FormValidation.error("API token is invalid");
+                case UNAVAILABLE:
+                    return FormValidation.warning("Could not check the API token: " + result.getMessage());
+                default:
+                    return FormValidation.warning("Checking the API token\u2026");
+            }
+        }
+
+        /**
+         * @return whether the API has recently rejected the token for the given credentials
+         */
+        private boolean isKnownInvalid(String credentialsId) {
+            try {
+                CredentialValidator.Result result = credentialValidator.getCached(credentialsId, getApiToken(credentialsId));
+                return result != null && result.getState() == CredentialValidator.State.INVALID;
+            } catch (RuntimeException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Forget the cached applications and environments for the credentials, so the drop downs show any that have just been added
+         */
+        @POST
+        public FormValidation doRefreshApplications(@QueryParameter String credentialsId, @AncestorInPath Item item) {
+            if (item == null) {
+                Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            } else {
+                item.checkPermission(Item.CONFIGURE);
+            }
+            if (StringUtils.isBlank(credentialsId)) {
+                return FormValidation.ok();
+            }
+            try {
+                applicationCache.invalidate(getApiToken(credentialsId));
+            } catch (RuntimeException e) {
+                return FormValidation.error(e.getMessage());
             }
+            return FormValidation.ok("Cleared the cached applications and environments. Choose the credentials again to reload them.");
         }
 
-        private String getApiToken(String credentialsId) {
+        static String getApiToken(String credentialsId) {
             if (StringUtils.isBlank(credentialsId)) {
                 throw new RuntimeException("No credentials Id");
             }
@@ -231,15 +308,23 @@ public class FeatureManagementConfigurationBuilder extends Builder implements Si
                     return new StandardListBoxModel().includeEmptyValue();
                 }
             }
-            if (StringUtils.isBlank(credentialsId) || invalidCredentialIds.contains(credentialsId)) {
+            if (StringUtils.isBlank(credentialsId) || isKnownInvalid(credentialsId)) {
                 return null;
             }
 
             try {
                 ListBoxModel items = new StandardListBoxModel().includeEmptyValue();
 
-                PublicApi.getInstance().listApplications(getApiToken(credentialsId))
-                        .forEach(application -> items.add(application.getName(), new IdAndName(application.getId(), application.getName()).toString()));
+                String apiToken = getApiToken(credentialsId);
+                try {
+                    applicationCache.listApplications(apiToken)
+                            .forEach(application -> items.add(application.getName(), new IdAndName(application.getId(), application.getName()).toString()));
+                    credentialValidator.record(credentialsId, apiToken, null);
+                } catch (IOException e) {
+                    // Saves doCheckCredentialsId calling the API again for the same answer
+                    credentialValidator.record(credentialsId, apiToken, e);
+                    throw e;
+                }
 
                 return items;
             } catch (Exception e) {
@@ -254,14 +339,14 @@ public class FeatureManagementConfigurationBuilder extends Builder implements Si
                     return new StandardListBoxModel().includeEmptyValue();
                 }
             }
-            if (StringUtils.isBlank(credentialsId) || invalidCredentialIds.contains(credentialsId) || StringUtils.isBlank(applicationIdAndName)) {
+            if (StringUtils.isBlank(credentialsId) || isKnownInvalid(credentialsId) || StringUtils.isBlank(applicationIdAndName)) {
                 return null;
             }
 
             try {
             ListBoxModel items = new StandardListBoxModel().includeEmptyValue();
 
-            PublicApi.getInstance().listEnvironments(getApiToken(credentialsId), IdAndName.parse(applicationIdAndName).getId())
+            applicationCache.listEnvironments(getApiToken(credentialsId), IdAndName.parse(applicationIdAndName).getId())
                     .forEach(environment -> items.add(environment.getName(), new IdAndName(environment.getKey(), environment.getName()).toString()));
 
             return items;
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import io.rollout.metrics.Metrics;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.metrics.api.MetricProvider;
+
+/**
+ * Publishes the {@link Metrics} to the Metrics plugin's registry, when that plugin is installed. The registry only asks for the
+ * metrics once, so the names are fixed here, and each gauge reads the current value when it is polled.
+ */
+@Extension(optional = true)
+public class FeatureManagementMetricProvider extends MetricProvider {
+    private static final String PREFIX = "cloudbees-feature-management.";
+    private static final List<String> ENDPOINTS = Arrays.asList("applications", "environments", "flags", "target-groups", "auditlogs");
+
+    @Override
+    public MetricSet getMetricSet() {
+        Map<String, Metric> metrics = new HashMap<>();
+        for (String endpoint : ENDPOINTS) {
+            addHistogram(metrics, "publicApi.latency." + endpoint, Metrics.NANOSECONDS);
+            addHistogram(metrics, "publicApi.bytes." + endpoint, Metrics.BYTES);
+            addCounter(metrics, "publicApi.errors." + endpoint);
+            addCounter(metrics, "publicApi.retries." + endpoint);
+        }
+        for (int status = 2; status <= 5; status++) {
+            // Summed over the individual status codes, which are only known once they have been seen
+            String prefix = "publicApi.status." + status;
+            metrics.put(PREFIX + prefix + "xx", (Gauge<Long>) () -> Metrics.sumCounters(prefix));
+        }
+        addHistogram(metrics, "persistence.read.duration", Metrics.NANOSECONDS);
+        addHistogram(metrics, "persistence.read.bytes", Metrics.BYTES);
+        addHistogram(metrics, "persistence.write.duration", Metrics.NANOSECONDS);
+        addHistogram(metrics, "persistence.write.bytes", Metrics.BYTES);
+        addHistogram(metrics, "comparison.duration", Metrics.NANOSECONDS);
+        addHistogram(metrics, "comparison.entities", Metrics.ENTITIES);
+        addHistogram(metrics, "diff.duration", Metrics.NANOSECONDS);
+        addHistogram(metrics, "diff.entities", Metrics.ENTITIES);
+        return () -> metrics;
+    }
+
+    private static void addCounter(Map<String, Metric> metrics, String name) {
+        metrics.put(PREFIX + name, (Gauge<Long>) () -> Metrics.counter(name).sum());
+    }
+
+    private static void addHistogram(Map<String, Metric> metrics, String name, String unit) {
+        // Look the histogram up each time, as it is replaced when the metrics are reset
+        metrics.put(PREFIX + name + ".count", (Gauge<Long>) () -> Metrics.histogram(name, unit).getCount());
+        metrics.put(PREFIX + name + ".mean", (Gauge<Double>) () -> Metrics.histogram(name, unit).getMean());
+        metrics.put(PREFIX + name + ".p50", (Gauge<Long>) () -> Metrics.histogram(name, unit).getValueAtQuantile(0.5));
+        metrics.put(PREFIX + name + ".p99", (Gauge<Long>) () -> Metrics.histogram(name, unit).getValueAtQuantile(0.99));
+        metrics.put(PREFIX + name + ".max", (Gauge<Long>) () -> Metrics.histogram(name, unit).getMax());
+    }
+}
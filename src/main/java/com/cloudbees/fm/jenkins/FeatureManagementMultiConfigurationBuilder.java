@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.init.Terminator;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import io.rollout.publicapi.PublicApi;
+import io.rollout.publicapi.model.Application;
+import io.rollout.publicapi.model.Environment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * A variant of {@link FeatureManagementConfigurationBuilder} that snapshots several application/environment pairs in one step. The
+ * environments are downloaded in parallel, with at most {@link #getConcurrency()} running at once, and a
+ * {@link FeatureManagementConfigurationAction} is attached for each of them.
+ */
+public class FeatureManagementMultiConfigurationBuilder extends Builder implements SimpleBuildStep {
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int MAX_CONCURRENCY = 16;
+    /**
+     * How many downloads can run at once, across all the builds. The HTTP client allows enough calls at once for all of them (see
+     * {@link PublicApiInitializer}).
+     */
+    static final int THREADS = SystemProperties.getInteger(FeatureManagementMultiConfigurationBuilder.class.getName() + ".threads", MAX_CONCURRENCY);
+
+    private static ExecutorService executor;
+
+    private final String credentialsId;
+    private final List<EnvironmentSelection> environments;
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    @DataBoundConstructor
+    public FeatureManagementMultiConfigurationBuilder(String credentialsId, List<EnvironmentSelection> environments) {
+        this.credentialsId = credentialsId;
+        this.environments = environments == null ? Collections.emptyList() : new ArrayList<>(environments);
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public List<EnvironmentSelection> getEnvironments() {
+        return Collections.unmodifiableList(environments);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+    }
+
+    /**
+     * Configurations saved before the concurrency setting was added don't have it
+     */
+    protected Object readResolve() {
+        if (concurrency == 0) {
+            concurrency = DEFAULT_CONCURRENCY;
+        }
+        return this;
+    }
+
+    @Override
+    public void perform(@NonNull Run<?, ?> run, @NonNull FilePath workspace, @NonNull Launcher launcher,
+                        @NonNull TaskListener listener)
+            throws InterruptedException, IOException {
+
+        Map<String, FeatureManagementConfigurationAction> targets;
+        String apiToken;
+        try {
+            apiToken = FeatureManagementConfigurationBuilder.DescriptorImpl.getApiToken(credentialsId);
+            targets = resolveTargets(apiToken);
+        } catch (Exception e) {
+            listener.getLogger().printf("Error fetching flag configurations: %s\n", e);
+            run.setResult(Result.UNSTABLE);
+            return;
+        }
+
+        // Each download gets a future up front, and at most `concurrency` workers on the shared pool take them in turn
+        Map<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>> downloads = new LinkedHashMap<>();
+        targets.values().forEach(target -> downloads.put(target, new CompletableFuture<>()));
+        Queue<Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>>> queue =
+                new ConcurrentLinkedQueue<>(downloads.entrySet());
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(concurrency, downloads.size()); i++) {
+                workers.add(getExecutor().submit(() -> download(queue, apiToken, run, listener)));
+            }
+        } catch (RejectedExecutionException e) {
+            // Shutting down. Fail whatever the workers that did start haven't taken.
+            failAll(queue, e);
+        }
+        try {
+            // Wait for the downloads in order so the actions are attached in a stable order
+            for (Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>> download : downloads.entrySet()) {
+                FeatureManagementConfigurationAction action = download.getKey();
+                try {
+                    ConfigurationDownloader.Counts counts = ConfigurationDownloader.await(download.getValue());
+                    run.addAction(action);
+                    action.saveDiffs(listener);
+                    FlagTrend.record(run, action, counts, listener);
+                    action.saveDeltas(listener);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    listener.getLogger().printf("Error fetching flag configurations for %s/%s: %s\n", action.getApplication().getName(), action.getEnvironment().getName(), e);
+                    run.setResult(Result.UNSTABLE);
+                }
+            }
+        } finally {
+            // Only does anything if the build was interrupted: stop the downloads still running, and drop the rest
+            failAll(queue, new CancellationException());
+            workers.forEach(worker -> worker.cancel(true));
+        }
+    }
+
+    /**
+     * Download the queued environments one after the other until there are none left
+     */
+    private static void download(Queue<Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>>> queue,
+                                 String apiToken, Run<?, ?> run, TaskListener listener) {
+        Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>> next;
+        while ((next = queue.poll()) != null) {
+            FeatureManagementConfigurationAction target = next.getKey();
+            try {
+                next.getValue().complete(new ConfigurationDownloader(target.getApplication(), target.getEnvironment()).downloadAndSave(apiToken, run, listener));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next.getValue().completeExceptionally(e);
+                failAll(queue, e);
+                return;
+            } catch (Exception e) {
+                next.getValue().completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void failAll(Queue<Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>>> queue,
+                                Throwable cause) {
+        Map.Entry<FeatureManagementConfigurationAction, CompletableFuture<ConfigurationDownloader.Counts>> next;
+        while ((next = queue.poll()) != null) {
+            next.getValue().completeExceptionally(cause);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), FeatureManagementMultiConfigurationBuilder.class.getSimpleName()));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    @Terminator
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Expand the selections into the actual application/environment pairs, keyed (and de-duplicated) by their URL name
+     */
+    private Map<String, FeatureManagementConfigurationAction> resolveTargets(String apiToken) throws IOException {
+        Map<String, FeatureManagementConfigurationAction> targets = new LinkedHashMap<>();
+        for (EnvironmentSelection selection : environments) {
+            IdAndName appIdName = IdAndName.parse(selection.getApplicationIdAndName());
+            Application application = new Application(appIdName.getId(), appIdName.getName());
+            List<Environment> selected;
+            if (selection.isAllEnvironments()) {
+                selected = PublicApi.getInstance().listEnvironments(apiToken, application.getId());
+            } else {
+                IdAndName envIdName = IdAndName.parse(selection.getEnvironmentIdAndName());
+                selected = Collections.singletonList(new Environment(envIdName.getId(), envIdName.getName(), null));
+            }
+            selected.forEach(environment -> {
+                FeatureManagementConfigurationAction action = new FeatureManagementConfigurationAction(application, new Environment(environment.getKey(), environment.getName(), null));
+                targets.putIfAbsent(action.getUrlName(), action);
+            });
+        }
+        return targets;
+    }
+
+    @Symbol("featureManagementConfigs")
+    @Extension
+    public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        @NonNull
+        public String getDisplayName() {
+            return "CloudBees Feature Management configuration (multiple environments)";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @POST
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item item, @QueryParameter String credentialsId) {
+            return builderDescriptor().doFillCredentialsIdItems(item, credentialsId);
+        }
+
+        @POST
+        public FormValidation doCheckCredentialsId(@QueryParameter String credentialsId, @AncestorInPath Item item) {
+            return builderDescriptor().doCheckCredentialsId(credentialsId, item);
+        }
+
+        @POST
+        public FormValidation doRefreshApplications(@QueryParameter String credentialsId, @AncestorInPath Item item) {
+            return builderDescriptor().doRefreshApplications(credentialsId, item);
+        }
+
+        private static FeatureManagementConfigurationBuilder.DescriptorImpl builderDescriptor() {
+            return Jenkins.get().getDescriptorByType(FeatureManagementConfigurationBuilder.DescriptorImpl.class);
+        }
+
+        public int getDefaultConcurrency() {
+            return DEFAULT_CONCURRENCY;
+        }
+
+        @POST
+        public FormValidation doCheckConcurrency(@QueryParameter int value) {
+            if (value < 1 || value > MAX_CONCURRENCY) {
+                return FormValidation.error("Concurrency must be between 1 and " + MAX_CONCURRENCY);
+            }
+            return FormValidation.ok();
+        }
+    }
+}
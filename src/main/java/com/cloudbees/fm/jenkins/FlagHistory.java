@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.listeners.ItemListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.rollout.configuration.history.HistoryIndex;
+import io.rollout.publicapi.model.DataPersister;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Maintains the {@link HistoryIndex}es of a job: one per environment and entity type, stored in the job directory. Each index is
+ * updated as a build completes, and rebuilt from the builds' snapshots if it is missing.
+ */
+final class FlagHistory {
+    private static final Logger LOGGER = Logger.getLogger(FlagHistory.class.getName());
+
+    static final DataPersister.EntityType[] ENTITY_TYPES = {DataPersister.EntityType.FLAG, DataPersister.EntityType.TARGET_GROUP};
+
+    /**
+     * How many jobs can have their history indexed from scratch at once
+     */
+    static final int REBUILD_THREADS = SystemProperties.getInteger(FlagHistory.class.getName() + ".rebuildThreads", 2);
+
+    /**
+     * The loaded indexes, by file. Also used as the lock for updating each file.
+     */
+    private static final Map<File, HistoryIndex> INDEXES = new ConcurrentHashMap<>();
+    /**
+     * Held while a job's history is rebuilt or a build is added to it, by job directory
+     */
+    private static final Map<File, Object> LOCKS = new ConcurrentHashMap<>();
+    /**
+     * The jobs waiting to be rebuilt, by full name, so that asking again doesn't queue another rebuild
+     */
+    private static final Set<String> PENDING = ConcurrentHashMap.newKeySet();
+    private static ExecutorService executor;
+
+    private FlagHistory() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    static File getDirectory(Job<?, ?> job) {
+        return new File(job.getRootDir(), "cloudbees-feature-management/history");
+    }
+
+    static File getFile(Job<?, ?> job, String environmentId, DataPersister.EntityType entityType) {
+        return new File(getDirectory(job), environmentId + "-" + entityType + ".idx");
+    }
+
+    /**
+     * @return the index, or null if nothing has been indexed for the environment yet
+     */
+    static HistoryIndex get(Job<?, ?> job, String environmentId, DataPersister.EntityType entityType) throws IOException {
+        File file = getFile(job, environmentId, entityType);
+        HistoryIndex index = INDEXES.get(file);
+        if (index == null) {
+            index = HistoryIndex.read(file);
+            if (index != null) {
+                HistoryIndex existing = INDEXES.putIfAbsent(file, index);
+                index = existing == null ? index : existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Only builds that other builds can be compared against are indexed. They are the ones {@link Run#getPreviousSuccessfulBuild()}
+     * can find, which includes unstable builds.
+     */
+    static boolean isIndexable(Run<?, ?> run) {
+        return run.getResult() != null && run.getResult().isBetterOrEqualTo(Result.UNSTABLE)
+                && !run.getActions(FeatureManagementConfigurationAction.class).isEmpty();
+    }
+
+    /**
+     * Add the changes made in a completed build to the job's indexes. If the job has no index yet, the whole history is indexed in the
+     * background instead.
+     * <p>
+     * This holds the job's lock, so it waits for a rebuild that is running. Otherwise the rebuild, working from the builds there were
+     * when it started, would replace the index this build was added to.
+     */
+    static void record(Run<?, ?> run) throws IOException {
+        if (!isIndexable(run)) {
+            return;
+        }
+        synchronized (lock(run.getParent())) {
+            recordLocked(run);
+        }
+    }
+
+    private static void recordLocked(Run<?, ?> run) throws IOException {
+        if (!getDirectory(run.getParent()).exists()) {
+            scheduleRebuild(run.getParent());
+            return;
+        }
+        for (FeatureManagementConfigurationAction action : run.getActions(FeatureManagementConfigurationAction.class)) {
+            for (DataPersister.EntityType entityType : ENTITY_TYPES) {
+                File file = getFile(run.getParent(), action.getEnvironment().getKey(), entityType);
+                HistoryIndex index = get(run.getParent(), action.getEnvironment().getKey(), entityType);
+                if (index == null) {
+                    // A new environment for this job
+                    index = new HistoryIndex();
+                    HistoryIndex existing = INDEXES.putIfAbsent(file, index);
+                    index = existing == null ? index : existing;
+                }
+                synchronized (index) {
+                    if (index.add(run.getNumber(), changes(action, entityType))) {
+                        index.write(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the whole history of the job in the background, unless it is already waiting to be
+     */
+    static void scheduleRebuild(Job<?, ?> job) {
+        if (!PENDING.add(job.getFullName())) {
+            return;
+        }
+        try {
+            getExecutor().submit(() -> {
+                PENDING.remove(job.getFullName());
+                rebuild(job);
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            PENDING.remove(job.getFullName());
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(REBUILD_THREADS, REBUILD_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), FlagHistory.class.getSimpleName()));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    @Terminator
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Index the whole history of the job from scratch, replacing any existing indexes. Only one rebuild of each job runs at a time.
+     */
+    static void rebuild(Job<?, ?> job) {
+        synchronized (lock(job)) {
+            rebuildLocked(job);
+        }
+    }
+
+    private static Object lock(Job<?, ?> job) {
+        return LOCKS.computeIfAbsent(job.getRootDir(), dir -> new Object());
+    }
+
+    private static void rebuildLocked(Job<?, ?> job) {
+        try {
+            Map<File, HistoryIndex> rebuilt = new HashMap<>();
+            List<Run<?, ?>> builds = new ArrayList<>(job.getBuilds());
+            // Oldest first, so that the postings are appended in order
+            for (int i = builds.size() - 1; i >= 0; i--) {
+                Run<?, ?> run = builds.get(i);
+                if (!isIndexable(run)) {
+                    continue;
+                }
+                for (FeatureManagementConfigurationAction action : run.getActions(FeatureManagementConfigurationAction.class)) {
+                    for (DataPersister.EntityType entityType : ENTITY_TYPES) {
+                        try {
+                            rebuilt.computeIfAbsent(getFile(job, action.getEnvironment().getKey(), entityType), f -> new HistoryIndex())
+                                    .add(run.getNumber(), changes(action, entityType));
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Could not index the changes in " + run, e);
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<File, HistoryIndex> entry : rebuilt.entrySet()) {
+                entry.getValue().write(entry.getKey());
+                INDEXES.put(entry.getKey(), entry.getValue());
+            }
+            // Mark the job as indexed, even if it has no builds to index yet
+            Files.createDirectories(getDirectory(job).toPath());
+            LOGGER.log(Level.FINE, "Indexed the flag history of {0}", job.getFullName());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not index the flag history of " + job.getFullName(), e);
+        }
+    }
+
+    private static Map<String, HistoryIndex.Change> changes(FeatureManagementConfigurationAction action, DataPersister.EntityType entityType) throws IOException {
+        Map<String, HistoryIndex.Change> changes = new HashMap<>();
+        for (EntityChange<?> change : action.getChangeList(entityType)) {
+            switch (change.getKind()) {
+                case ADDED:
+                    changes.put(change.getName(), HistoryIndex.Change.ADDED);
+                    break;
+                case DELETED:
+                    changes.put(change.getName(), HistoryIndex.Change.REMOVED);
+                    break;
+                default:
+                    changes.put(change.getName(), HistoryIndex.Change.CHANGED);
+                    break;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Forget the loaded indexes of jobs that are deleted or moved
+     */
+    @Extension
+    public static class Cleanup extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                forget(((Job<?, ?>) item).getRootDir());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof Job) {
+                // The old directory is gone, so drop whatever was loaded from it
+                INDEXES.keySet().removeIf(file -> !file.exists());
+                LOCKS.keySet().removeIf(dir -> !dir.exists());
+            }
+        }
+
+        private static void forget(File jobDir) {
+            String prefix = jobDir.getPath() + File.separator;
+            INDEXES.keySet().removeIf(file -> file.getPath().startsWith(prefix));
+            LOCKS.remove(jobDir);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import io.rollout.configuration.history.HistoryIndex;
+import io.rollout.publicapi.model.DataPersister;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.TransientActionFactory;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Shows, for a job, the builds in which a flag or target group was added, changed or removed. Backed by the job's {@link FlagHistory}.
+ */
+public class FlagHistoryAction implements Action {
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
+
+    private final Job<?, ?> job;
+
+    FlagHistoryAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "/plugin/cloudbees-feature-management/images/cloudbees.svg";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flag History";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flag-history";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * @return the configuration actions of the last successful build, one per environment
+     */
+    public List<FeatureManagementConfigurationAction> getEnvironments() {
+        Run<?, ?> lastSuccessfulBuild = job.getLastSuccessfulBuild();
+        return lastSuccessfulBuild == null ? Collections.emptyList() : lastSuccessfulBuild.getActions(FeatureManagementConfigurationAction.class);
+    }
+
+    public DataPersister.EntityType[] getEntityTypes() {
+        return FlagHistory.ENTITY_TYPES;
+    }
+
+    public boolean isIndexed() {
+        return FlagHistory.getDirectory(job).exists();
+    }
+
+    /**
+     * @return the builds in which the entity changed, newest first
+     */
+    public List<HistoryIndex.Posting> lookup(String environmentId, String type, String name) throws IOException {
+        DataPersister.EntityType entityType = entityType(type);
+        if (environmentId == null || entityType == null || name == null) {
+            return Collections.emptyList();
+        }
+        HistoryIndex index = FlagHistory.get(job, environmentId, entityType);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<HistoryIndex.Posting> postings = new ArrayList<>(index.lookup(name));
+        Collections.reverse(postings);
+        return postings;
+    }
+
+    /**
+     * @return the names of all the entities that have changed, for autocompletion
+     */
+    public List<String> getNames(String environmentId, String type) throws IOException {
+        DataPersister.EntityType entityType = entityType(type);
+        if (environmentId == null || entityType == null) {
+            return Collections.emptyList();
+        }
+        HistoryIndex index = FlagHistory.get(job, environmentId, entityType);
+        return index == null ? Collections.emptyList() : index.getNames();
+    }
+
+    public Run<?, ?> getBuild(int number) {
+        return job.getBuildByNumber(number);
+    }
+
+    private static DataPersister.EntityType entityType(String type) {
+        for (DataPersister.EntityType entityType : FlagHistory.ENTITY_TYPES) {
+            if (entityType.name().equals(type)) {
+                return entityType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The builds in which a flag or target group changed, newest first, as JSON
+     *
+     * @param environment the environment ID
+     * @param type {@code FLAG} or {@code TARGET_GROUP}
+     */
+    @GET
+    public HttpResponse doLookup(@QueryParameter String environment, @QueryParameter String type, @QueryParameter String name) throws IOException {
+        if (entityType(type) == null) {
+            return HttpResponses.errorWithoutStack(400, "Unknown type " + type);
+        }
+        List<Map<String, Object>> changes = new ArrayList<>();
+        for (HistoryIndex.Posting posting : lookup(environment, type, name)) {
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("build", posting.getBuild());
+            change.put("change", posting.getChange());
+            Run<?, ?> run = job.getBuildByNumber(posting.getBuild());
+            change.put("url", run == null ? null : run.getUrl());
+            changes.add(change);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("environment", environment);
+        body.put("type", type);
+        body.put("name", name);
+        body.put("changes", changes);
+        return (req, rsp, node) -> {
+            rsp.setContentType("application/json;charset=UTF-8");
+            JSON_WRITER.writeValue(rsp.getOutputStream(), body);
+        };
+    }
+
+    /**
+     * Index the whole history of the job again, in the background
+     */
+    @POST
+    public HttpResponse doRebuild() {
+        job.checkPermission(Item.CONFIGURE);
+        FlagHistory.scheduleRebuild(job);
+        return HttpResponses.redirectToDot();
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job job) {
+            // Only for jobs that use this plugin, which will either have a history already or a build with a configuration
+            Run<?, ?> lastBuild = job.getLastBuild();
+            if (FlagHistory.getDirectory(job).exists() || (lastBuild != null && !lastBuild.getActions(FeatureManagementConfigurationAction.class).isEmpty())) {
+                return Collections.singletonList(new FlagHistoryAction(job));
+            }
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import hudson.init.Terminator;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.rollout.configuration.comparison.ComparisonResult;
+import io.rollout.configuration.history.TimeSeries;
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Flag;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains the {@link TimeSeries} of a job: one per environment, stored in the job directory, with a point appended as each build
+ * saves its configuration. Builds from before the series existed are added once, in the background.
+ */
+final class FlagTrend {
+    private static final Logger LOGGER = Logger.getLogger(FlagTrend.class.getName());
+
+    /**
+     * The jobs that have been checked for builds to backfill since startup, by full name, so that the check is only done once per job
+     * rather than every time its actions are asked for
+     */
+    private static final Set<String> CHECKED = ConcurrentHashMap.newKeySet();
+    private static ExecutorService executor;
+
+    private FlagTrend() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    static File getDirectory(Job<?, ?> job) {
+        return new File(job.getRootDir(), "cloudbees-feature-management/trend");
+    }
+
+    static File getFile(Job<?, ?> job, String environmentId) {
+        return new File(getDirectory(job), environmentId + ".series");
+    }
+
+    private static File getBackfillMarker(Job<?, ?> job) {
+        return new File(getDirectory(job), ".backfilled");
+    }
+
+    /**
+     * Append the build to the series, using the counts from the download and the comparison the action has already done
+     */
+    static void record(Run<?, ?> run, FeatureManagementConfigurationAction action, ConfigurationDownloader.Counts counts, TaskListener listener) {
+        try {
+            TimeSeries.append(getFile(run.getParent(), action.getEnvironment().getKey()),
+                    point(run, action, counts.flags, counts.enabledFlags, counts.targetGroups));
+        } catch (IOException | RuntimeException e) {
+            listener.getLogger().printf("Could not record the flag trend for %s/%s: %s\n", action.getApplication().getName(), action.getEnvironment().getName(), e);
+        }
+    }
+
+    private static TimeSeries.Point point(Run<?, ?> run, FeatureManagementConfigurationAction action, int flags, int enabledFlags, int targetGroups) throws IOException {
+        ComparisonResult<Flag> changes = action.getFlagChanges();
+        return new TimeSeries.Point(run.getNumber(), run.getTimeInMillis(), flags, enabledFlags, targetGroups,
+                changes.getInSecondOnly().size(), changes.getInBothButDifferent().size(), changes.getInFirstOnly().size());
+    }
+
+    /**
+     * @return the points recorded for the environment, oldest first
+     */
+    static List<TimeSeries.Point> read(Job<?, ?> job, String environmentId) throws IOException {
+        return TimeSeries.read(getFile(job, environmentId));
+    }
+
+    /**
+     * Add the builds from before the series existed in the background, unless that has already been done
+     */
+    static void scheduleBackfill(Job<?, ?> job) {
+        if (!CHECKED.add(job.getFullName()) || getBackfillMarker(job).exists()) {
+            return;
+        }
+        try {
+            getExecutor().submit(() -> {
+                if (!backfill(job)) {
+                    // Try again the next time the job is looked at
+                    CHECKED.remove(job.getFullName());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            CHECKED.remove(job.getFullName());
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            // The backfill only runs once per job, so one thread is enough and keeps it from competing with the builds
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), FlagTrend.class.getSimpleName()));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    @Terminator
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return false if the backfill failed, and should be tried again
+     */
+    static boolean backfill(Job<?, ?> job) {
+        try {
+            List<Run<?, ?>> builds = new ArrayList<>(job.getBuilds());
+            Collections.reverse(builds);
+            // The builds already in each series, by environment. Each series is only read once, and kept up to date as points are added.
+            Map<String, Set<Integer>> recorded = new HashMap<>();
+            for (Run<?, ?> run : builds) {
+                if (run.isBuilding()) {
+                    continue;
+                }
+                for (FeatureManagementConfigurationAction action : run.getActions(FeatureManagementConfigurationAction.class)) {
+                    File file = getFile(job, action.getEnvironment().getKey());
+                    Set<Integer> numbers = recorded.get(action.getEnvironment().getKey());
+                    if (numbers == null) {
+                        numbers = TimeSeries.read(file).stream().map(TimeSeries.Point::getBuild).collect(Collectors.toSet());
+                        recorded.put(action.getEnvironment().getKey(), numbers);
+                    }
+                    if (numbers.contains(run.getNumber())) {
+                        continue;
+                    }
+                    try {
+                        TimeSeries.append(file, point(run, action, getTotalFlagCount(run, action), action.getFlagCount(), action.getTargetGroupCount()));
+                        numbers.add(run.getNumber());
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Could not add " + run + " to the flag trend", e);
+                    }
+                }
+            }
+            Files.createDirectories(getDirectory(job).toPath());
+            Files.createFile(getBackfillMarker(job).toPath());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not backfill the flag trend of " + job.getFullName(), e);
+            return false;
+        }
+    }
+
+    private static int getTotalFlagCount(Run<?, ?> run, FeatureManagementConfigurationAction action) throws IOException {
+        EntityIndex index = DataPersister.readIndex(run.getRootDir(), action.getEnvironment().getKey(), DataPersister.EntityType.FLAG);
+        if (index != null) {
+            return index.getEntries().size();
+        }
+        return DataPersister.readValue(run.getRootDir(), action.getEnvironment().getKey(), DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, Collections.<Flag>emptyList()).size();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import io.rollout.configuration.history.TimeSeries;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.TransientActionFactory;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.GET;
+
+/**
+ * Charts, for a job, how many flags and target groups each build saved and how many flags changed. Backed by the job's {@link FlagTrend}.
+ */
+public class FlagTrendAction implements Action {
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
+
+    private final Job<?, ?> job;
+
+    FlagTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "/plugin/cloudbees-feature-management/images/cloudbees.svg";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flag Trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flag-trend";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * @return the configuration actions of the last successful build, one per environment
+     */
+    public List<FeatureManagementConfigurationAction> getEnvironments() {
+        Run<?, ?> lastSuccessfulBuild = job.getLastSuccessfulBuild();
+        return lastSuccessfulBuild == null ? Collections.emptyList() : lastSuccessfulBuild.getActions(FeatureManagementConfigurationAction.class);
+    }
+
+    /**
+     * The points of an environment's trend, oldest first, as JSON
+     *
+     * @param environment the environment ID
+     */
+    @GET
+    public HttpResponse doData(@QueryParameter String environment) throws IOException {
+        if (environment == null || environment.isEmpty()) {
+            return HttpResponses.errorWithoutStack(400, "environment is required");
+        }
+        List<Map<String, Object>> points = new ArrayList<>();
+        for (TimeSeries.Point point : FlagTrend.read(job, environment)) {
+            Map<String, Object> value = new LinkedHashMap<>();
+            value.put("build", point.getBuild());
+            value.put("timestamp", point.getTimestamp());
+            value.put("flags", point.getFlags());
+            value.put("enabledFlags", point.getEnabledFlags());
+            value.put("targetGroups", point.getTargetGroups());
+            value.put("added", point.getAdded());
+            value.put("changed", point.getChanged());
+            value.put("removed", point.getRemoved());
+            points.add(value);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("environment", environment);
+        body.put("points", points);
+        return (req, rsp, node) -> {
+            rsp.setContentType("application/json;charset=UTF-8");
+            JSON_WRITER.writeValue(rsp.getOutputStream(), body);
+        };
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job job) {
+            // Only for jobs that use this plugin, which will either have a trend already or a build with a configuration
+            Run<?, ?> lastBuild = job.getLastBuild();
+            if (FlagTrend.getDirectory(job).exists() || (lastBuild != null && !lastBuild.getActions(FeatureManagementConfigurationAction.class).isEmpty())) {
+                FlagTrend.scheduleBackfill(job);
+                return Collections.singletonList(new FlagTrendAction(job));
+            }
+            return Collections.emptyList();
+        }
+    }
+}
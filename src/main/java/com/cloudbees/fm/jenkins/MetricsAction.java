@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.Extension;
+import hudson.model.RootAction;
+import io.rollout.metrics.Histogram;
+import io.rollout.metrics.Metrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Shows administrators the {@link Metrics} recorded for the Public API calls, the snapshot reads and writes, and the comparisons and
+ * diffs, as JSON at {@code /cloudbees-feature-management-metrics/}. Durations are in nanoseconds.
+ */
+@Extension
+public class MetricsAction implements RootAction {
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writerWithDefaultPrettyPrinter();
+
+    @Override
+    public String getIconFileName() {
+        // Not shown in the side panel
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "CloudBees Feature Management Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "cloudbees-feature-management-metrics";
+    }
+
+    @GET
+    public HttpResponse doIndex() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        Map<String, Object> histograms = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> histogram : Metrics.getHistograms().entrySet()) {
+            histograms.put(histogram.getKey(), histogram.getValue().getSummary());
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("counters", Metrics.getCounters());
+        body.put("histograms", histograms);
+        return (req, rsp, node) -> {
+            rsp.setContentType("application/json;charset=UTF-8");
+            JSON_WRITER.writeValue(rsp.getOutputStream(), body);
+        };
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. before measuring a change
+     */
+    @POST
+    public HttpResponse doReset() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        Metrics.reset();
+        return HttpResponses.redirectToDot();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import io.rollout.publicapi.CoalescingInterceptor;
+import io.rollout.publicapi.PublicApi;
+import io.rollout.publicapi.RateLimiter;
+import io.rollout.publicapi.ResponseCache;
+import io.rollout.publicapi.ThrottlingInterceptor;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import okhttp3.Cache;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Sets up the shared {@link PublicApi} instance with an HTTP client that caches responses, so that builds don't download the same
+ * configuration over and over again.
+ * <ul>
+ *     <li>An on-disk HTTP cache under {@code JENKINS_HOME}, which revalidates responses using their {@code ETag}/{@code Last-Modified}
+ *     headers. Its size is capped by {@code <this class>.diskCacheSize} (bytes).</li>
+ *     <li>A {@link ResponseCache} for responses without validators, kept for {@code <this class>.responseCacheTtl} seconds and capped
+ *     by {@code <this class>.responseCacheSize} (bytes). A TTL of 0 disables it.</li>
+ * </ul>
+ * It also throttles the calls with a {@link ThrottlingInterceptor}, shared by every build and form on the controller, allowing
+ * {@code <this class>.requestsPerSecond} per API token with bursts of up to {@code <this class>.requestBurst}. Rate limited or failed
+ * requests are retried up to {@code <this class>.maxRetries} times.
+ * <p>
+ * At most {@code <this class>.maxRequests} asynchronous calls are in flight at once, and the rest are queued by the client's
+ * {@link Dispatcher}. Every call goes to the same API host, so this is also the limit per host (OkHttp's default is 5, which would
+ * serialize the downloads of all the builds). An asynchronous call that has to wait for the rate limit gives up its place until it
+ * is sent again, so this never needs to be lower than {@code <this class>.requestBurst}. Nor is it lower than the two calls (flags and
+ * target groups) for each of the environments that {@link FeatureManagementMultiConfigurationBuilder} downloads at once, so that its
+ * concurrency is what actually runs.
+ * <p>
+ * Identical requests made at the same time (same token and URL) are coalesced into one with a {@link CoalescingInterceptor}, and its
+ * response is reused for {@code <this class>.coalescingWindow} seconds.
+ */
+public class PublicApiInitializer {
+    private static final Logger LOGGER = Logger.getLogger(PublicApiInitializer.class.getName());
+
+    static final long DISK_CACHE_SIZE = SystemProperties.getLong(PublicApiInitializer.class.getName() + ".diskCacheSize", 50L * 1024 * 1024);
+    static final long RESPONSE_CACHE_TTL = SystemProperties.getLong(PublicApiInitializer.class.getName() + ".responseCacheTtl", 10L);
+    static final long RESPONSE_CACHE_SIZE = SystemProperties.getLong(PublicApiInitializer.class.getName() + ".responseCacheSize", 16L * 1024 * 1024);
+
+    static final double REQUESTS_PER_SECOND = Double.parseDouble(SystemProperties.getString(PublicApiInitializer.class.getName() + ".requestsPerSecond", "5"));
+    static final int REQUEST_BURST = SystemProperties.getInteger(PublicApiInitializer.class.getName() + ".requestBurst", 10);
+    static final int MAX_RETRIES = SystemProperties.getInteger(PublicApiInitializer.class.getName() + ".maxRetries", 5);
+
+    static final int MAX_REQUESTS = SystemProperties.getInteger(PublicApiInitializer.class.getName() + ".maxRequests", 64);
+
+    static final long COALESCING_WINDOW = SystemProperties.getLong(PublicApiInitializer.class.getName() + ".coalescingWindow", 5L);
+
+    private static ResponseCache responseCache;
+    private static CoalescingInterceptor coalescing;
+    private static ThrottlingInterceptor throttle;
+
+    private PublicApiInitializer() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void init() {
+        responseCache = new ResponseCache(RESPONSE_CACHE_TTL, TimeUnit.SECONDS, RESPONSE_CACHE_SIZE);
+        throttle = new ThrottlingInterceptor(new RateLimiter(REQUESTS_PER_SECOND, REQUEST_BURST), MAX_RETRIES, 500, TimeUnit.SECONDS.toMillis(30));
+        coalescing = new CoalescingInterceptor(COALESCING_WINDOW, TimeUnit.SECONDS);
+        // Interceptors run in order, so that responses served from memory or shared with other requests don't use up the rate limit
+        int maxRequests = Math.max(MAX_REQUESTS, Math.max(REQUEST_BURST, 2 * FeatureManagementMultiConfigurationBuilder.THREADS));
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .addInterceptor(responseCache)
+                .addInterceptor(coalescing)
+                .addInterceptor(throttle)
+                .addNetworkInterceptor(PublicApiInitializer::alwaysRevalidate);
+        if (DISK_CACHE_SIZE > 0) {
+            builder.cache(new Cache(getCacheDir(), DISK_CACHE_SIZE));
+        }
+        PublicApi.setInstance(new PublicApi(builder.build()));
+    }
+
+    @Terminator
+    public static void shutdown() {
+        Cache cache = PublicApi.getInstance().getClient().cache();
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close the HTTP cache", e);
+            }
+        }
+    }
+
+    static File getCacheDir() {
+        return new File(Jenkins.get().getRootDir(), "caches/cloudbees-feature-management/http");
+    }
+
+    /**
+     * The cache is keyed by URL only, so never let it serve a stored response without checking with the API first. Otherwise a
+     * response fetched with one token could be served to a request made with another (or a revoked) token.
+     */
+    private static Response alwaysRevalidate(Interceptor.Chain chain) throws IOException {
+        return chain.proceed(chain.request()).newBuilder()
+                .header("Cache-Control", "no-cache")
+                .removeHeader("Expires")
+                .removeHeader("Pragma")
+                .build();
+    }
+
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public static CoalescingInterceptor getCoalescing() {
+        return coalescing;
+    }
+
+    public static ThrottlingInterceptor getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * The on-disk HTTP cache, or null if it has been disabled
+     */
+    public static Cache getHttpCache() {
+        return PublicApi.getInstance().getClient().cache();
+    }
+}
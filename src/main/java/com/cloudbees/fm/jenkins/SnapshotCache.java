@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.init.Terminator;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.util.SystemProperties;
+
+/**
+ * Snapshots and comparisons loaded by the actions, shared by all of them. Rendering a page, comparing against the same baseline again,
+ * or paging through a comparison, then doesn't parse the snapshots again. The least recently used entries are dropped once there are
+ * more than {@link #SIZE}, so the memory held doesn't grow with the number of builds that have been viewed. The entries of a build are
+ * dropped as soon as it is deleted (see {@link SnapshotCacheListener}).
+ */
+final class SnapshotCache {
+    /**
+     * A page needs up to eight entries (the snapshots of both builds, their comparisons and diffs), so this holds a few pages
+     */
+    static final int SIZE = SystemProperties.getInteger(SnapshotCache.class.getName() + ".size", 32);
+
+    private static final Map<Object, Object> CACHE = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            return size() > SIZE;
+        }
+    };
+
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private SnapshotCache() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    /**
+     * @param key identifies the value, including the version of the files it is loaded from
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(Object key, Loader<T> loader) throws IOException {
+        synchronized (CACHE) {
+            Object value = CACHE.get(key);
+            if (value != null) {
+                return (T) value;
+            }
+        }
+        // Load without holding the lock, so that one large snapshot doesn't hold up the others. Two requests for the same key may both
+        // load it, which is harmless.
+        T value = loader.load();
+        synchronized (CACHE) {
+            CACHE.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Drop everything loaded from the given build directory, e.g. once the build has been deleted
+     */
+    static void evict(File dir) {
+        String path = dir.getPath();
+        synchronized (CACHE) {
+            CACHE.keySet().removeIf(key -> key instanceof List && ((List<?>) key).contains(path));
+        }
+    }
+
+    @Terminator
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import io.rollout.publicapi.model.DataPersister;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Before a build is deleted (by hand or by the job's build discarder), saves in full any snapshot that was saved as a delta against
+ * it, so that the snapshot can still be read once the build is gone.
+ */
+@Extension
+public class SnapshotDeltaListener extends RunListener<Run<?, ?>> {
+    private static final Logger LOGGER = Logger.getLogger(SnapshotDeltaListener.class.getName());
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        for (FeatureManagementConfigurationAction action : run.getActions(FeatureManagementConfigurationAction.class)) {
+            promoteDependents(run, action.getEnvironment().getKey());
+        }
+    }
+
+    /**
+     * Deltas are saved against the previous successful build, so only the builds up to and including the next successful build can
+     * depend on this one
+     */
+    static void promoteDependents(Run<?, ?> run, String environmentId) {
+        File dir = run.getRootDir().getAbsoluteFile();
+        for (Run<?, ?> next = run.getNextBuild(); next != null; next = next.getNextBuild()) {
+            for (DataPersister.EntityType entityType : FlagHistory.ENTITY_TYPES) {
+                try {
+                    if (dir.equals(DataPersister.getDeltaBase(next.getRootDir(), environmentId, entityType))) {
+                        DataPersister.writeKeyframe(next.getRootDir(), environmentId, entityType);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Could not save the " + entityType + " snapshot of " + next + " in full before " + run + " is deleted", e);
+                }
+            }
+            Result result = next.getResult();
+            if (result != null && result.isBetterOrEqualTo(Result.UNSTABLE)) {
+                break;
+            }
+        }
+    }
+}
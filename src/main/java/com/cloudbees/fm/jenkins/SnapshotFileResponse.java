@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.SnapshotFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import javax.servlet.http.HttpServletResponse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Streams a saved snapshot to the browser as JSON, straight from the file where possible. Supports conditional requests (ETag) and
+ * single byte ranges, and serves gzip compressed snapshots as they are to clients that accept gzip.
+ */
+class SnapshotFileResponse implements HttpResponse {
+    private final File dir;
+    private final String environmentId;
+    private final DataPersister.EntityType entityType;
+    private final boolean download;
+
+    SnapshotFileResponse(File dir, String environmentId, DataPersister.EntityType entityType, boolean download) {
+        this.dir = dir;
+        this.environmentId = environmentId;
+        this.entityType = entityType;
+        this.download = download;
+    }
+
+    @Override
+    public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException {
+        File file = DataPersister.findSource(dir, environmentId, entityType);
+        if (file == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // A snapshot saved as a delta has to be rebuilt from its base
+        boolean delta = file.equals(DataPersister.deltaFilename(dir, environmentId, entityType));
+        SnapshotFormat format = delta ? null : SnapshotFormat.of(file);
+        boolean gzip = format == SnapshotFormat.JSON_GZIP && acceptsGzip(req.getHeader("Accept-Encoding"));
+        // Only plain JSON, or gzipped JSON for a client that accepts it, can be sent as it is. Anything else is converted on the fly.
+        boolean direct = format != null && (format.isPlainJson() || gzip);
+
+        // Snapshots are only ever replaced, never modified in place, so the size and modification time identify the contents
+        String etag = "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + (gzip ? "-gzip" : "") + (direct ? "" : "-json") + "\"";
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        rsp.setHeader("Vary", "Accept-Encoding");
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        if (download) {
+            rsp.setHeader("Content-Disposition", "attachment; filename=" + environmentId + "-" + entityType + ".json");
+        }
+
+        if (!direct) {
+            DataPersister.copyAsJson(dir, environmentId, entityType, rsp.getOutputStream());
+            return;
+        }
+
+        if (gzip) {
+            rsp.setHeader("Content-Encoding", "gzip");
+        }
+        rsp.setHeader("Accept-Ranges", "bytes");
+        long length = file.length();
+        long[] range = null;
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange == null || ifRange.equals(etag)) {
+            range = parseRange(req.getHeader("Range"), length);
+        }
+        if (range == UNSATISFIABLE) {
+            rsp.setHeader("Content-Range", "bytes */" + length);
+            rsp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long start = 0;
+        long count = length;
+        if (range != null) {
+            start = range[0];
+            count = range[1] - range[0] + 1;
+            rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            rsp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        rsp.setContentLengthLong(count);
+        transfer(file, start, count, rsp.getOutputStream());
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Parse a Range header. Only single ranges are supported; anything else is served in full.
+     *
+     * @return the first and last byte positions (inclusive), {@link #UNSATISFIABLE}, or null to send the whole file
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // The last N bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.isEmpty()) {
+                    end = length - 1;
+                } else {
+                    end = Long.parseLong(last);
+                    if (end < start) {
+                        return null; // invalid, so ignore it
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void transfer(File file, long start, long count, OutputStream out) throws IOException {
+        // Copy only the requested range, a chunk at a time, rather than reading the file onto the heap. The servlet stream is wrapped in a
+        // plain channel, so this is an ordinary buffered copy, not sendfile.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.fm.jenkins;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import io.rollout.publicapi.model.DataPersister;
+import io.rollout.publicapi.model.SnapshotStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Sets up the {@link SnapshotStore} that deduplicates the snapshot files saved in the build directories, and periodically removes the
+ * snapshots that are no longer used by any build. Set {@code <this class>.disabled} to write plain files instead. The format of the
+ * snapshots is set with the {@link DataPersister} system properties.
+ */
+@Extension
+public class SnapshotStoreCleanup extends AsyncPeriodicWork {
+    static final boolean DISABLED = SystemProperties.getBoolean(SnapshotStoreCleanup.class.getName() + ".disabled", false);
+
+    private static SnapshotStore store;
+
+    public SnapshotStoreCleanup() {
+        super("CloudBees Feature Management snapshot store cleanup");
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void init() {
+        if (!DISABLED) {
+            store = new SnapshotStore(new File(Jenkins.get().getRootDir(), "cloudbees-feature-management/snapshots"));
+            DataPersister.setSnapshotStore(store);
+        }
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (store != null) {
+            int deleted = store.collectGarbage(1, TimeUnit.HOURS);
+            listener.getLogger().printf("Deleted %d unused snapshots\n", deleted);
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class ComparisonResult<T> {
     private final Set<T> inSecondOnly = new HashSet<>();
     private final Set<Pair<T, T>> inBothButDifferent = new HashSet<>();
     private final Set<T> inBothAndTheSame = new HashSet<>();
+    private int inBothAndTheSameNotLoaded;
 
     public Set<T> getInFirstOnly() {
         return inFirstOnly;
@@ -54,6 +55,14 @@ public class ComparisonResult<T> {
         return inBothAndTheSame;
     }
 
+    /**
+     * @return the number of entities that are the same in both. This can be more than {@link #getInBothAndTheSame()} has, as entities
+     * found to be the same by comparing hashes are only counted.
+     */
+    public int getInBothAndTheSameCount() {
+        return inBothAndTheSame.size() + inBothAndTheSameNotLoaded;
+    }
+
     public boolean areEqual() {
         return inFirstOnly.isEmpty() &&
                 inSecondOnly.isEmpty() &&
@@ -75,4 +84,11 @@ public class ComparisonResult<T> {
     public void addInBothAndTheSame(T entity) {
         inBothAndTheSame.add(entity);
     }
+
+    /**
+     * Count an entity that is the same in both, without keeping it
+     */
+    public void countInBothAndTheSame() {
+        inBothAndTheSameNotLoaded++;
+    }
 }
@@ -24,14 +24,18 @@
 
 package io.rollout.configuration.comparison;
 
+import io.rollout.metrics.Metrics;
+import io.rollout.publicapi.model.EntityIndex;
 import io.rollout.publicapi.model.Flag;
 import io.rollout.publicapi.model.TargetGroup;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * A class that will compare two different Lists of objects. It will return a {@link ComparisonResult} that will supplied configurations into the following groups:
@@ -46,12 +50,13 @@ import java.util.stream.Collectors;
  */
 public class ConfigurationComparator {
     public <T> ComparisonResult<T> compare(List<T> first, List<T> second) {
+        long start = System.nanoTime();
         ComparisonResult<T> result = new ComparisonResult<>();
 
         // Work through the experiments first.
         // Create maps of the old config by ID and the new config by ID, and a set of IDs.
-        Map<String, T> firstById = first.stream().collect(Collectors.toMap(this::getId, Function.identity()));
-        Map<String, T> secondById = second.stream().collect(Collectors.toMap(this::getId, Function.identity()));
+        Map<String, T> firstById = byId(first, this::getId);
+        Map<String, T> secondById = byId(second, this::getId);
         Set<String> ids = new HashSet<>(firstById.keySet()); // make it mutable
         ids.addAll(secondById.keySet());
 
@@ -73,9 +78,96 @@ public class ConfigurationComparator {
             }
         });
 
+        record(start, first.size() + second.size());
         return result;
     }
 
+    /**
+     * Loads the entities at the given positions of a snapshot
+     */
+    public interface EntityLoader<T> {
+        Map<Integer, T> load(Set<Integer> positions) throws IOException;
+    }
+
+    /**
+     * Compare two snapshots using their {@link EntityIndex}es. Entities with the same hash are only counted, and just the entities that
+     * were added, deleted or changed are loaded.
+     */
+    public <T> ComparisonResult<T> compare(List<EntityIndex.Entry> first, EntityLoader<T> firstLoader,
+                                           List<EntityIndex.Entry> second, EntityLoader<T> secondLoader) throws IOException {
+        long start = System.nanoTime();
+        ComparisonResult<T> result = new ComparisonResult<>();
+
+        Map<String, EntityIndex.Entry> firstById = byId(first, EntityIndex.Entry::getName);
+        Map<String, EntityIndex.Entry> secondById = byId(second, EntityIndex.Entry::getName);
+        Set<String> ids = new HashSet<>(firstById.keySet());
+        ids.addAll(secondById.keySet());
+
+        // Work out which entities need loading
+        List<String> different = new ArrayList<>();
+        Set<Integer> firstPositions = new HashSet<>();
+        Set<Integer> secondPositions = new HashSet<>();
+        ids.forEach(id -> {
+            EntityIndex.Entry firstEntry = firstById.get(id);
+            EntityIndex.Entry secondEntry = secondById.get(id);
+            if (firstEntry != null && secondEntry != null && firstEntry.getHash().equals(secondEntry.getHash())) {
+                result.countInBothAndTheSame();
+            } else {
+                different.add(id);
+                if (firstEntry != null) {
+                    firstPositions.add(firstEntry.getPosition());
+                }
+                if (secondEntry != null) {
+                    secondPositions.add(secondEntry.getPosition());
+                }
+            }
+        });
+
+        Map<Integer, T> firstModels = firstLoader.load(firstPositions);
+        Map<Integer, T> secondModels = secondLoader.load(secondPositions);
+        for (String id : different) {
+            EntityIndex.Entry firstEntry = firstById.get(id);
+            EntityIndex.Entry secondEntry = secondById.get(id);
+            T firstModel = firstEntry == null ? null : firstModels.get(firstEntry.getPosition());
+            T secondModel = secondEntry == null ? null : secondModels.get(secondEntry.getPosition());
+            if ((firstEntry != null && firstModel == null) || (secondEntry != null && secondModel == null)) {
+                throw new IOException("The snapshot does not match its index: " + id + " is missing");
+            }
+            if (firstModel != null && secondModel != null) {
+                result.addInBothButDifferent(firstModel, secondModel);
+            } else if (firstModel != null) {
+                result.addInFirstOnly(firstModel);
+            } else {
+                result.addInSecondOnly(secondModel);
+            }
+        }
+
+        record(start, first.size() + second.size());
+        return result;
+    }
+
+    private static void record(long start, int entities) {
+        Metrics.histogram("comparison.duration", Metrics.NANOSECONDS).recordSince(start);
+        Metrics.histogram("comparison.entities", Metrics.ENTITIES).record(entities);
+    }
+
+    /**
+     * Key the models by ID. Should more than one model have the same ID, the later ones are keyed as {@code <id>#2}, {@code <id>#3}
+     * and so on, so that they are still compared (in order) rather than lost.
+     */
+    static <T> Map<String, T> byId(List<T> models, Function<T, String> getId) {
+        Map<String, T> byId = new HashMap<>();
+        for (T model : models) {
+            String id = getId.apply(model);
+            String key = id;
+            for (int n = 2; byId.containsKey(key); n++) {
+                key = id + "#" + n;
+            }
+            byId.put(key, model);
+        }
+        return byId;
+    }
+
     private String getId(Object model) {
         if (model instanceof Flag) {
             return ((Flag)model).getName();
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.configuration.diff;
+
+import java.util.Objects;
+
+/**
+ * A single change found by {@link JsonTreeDiff}. The operations and paths are those of JSON Patch (RFC 6902), so applying the changes in
+ * order turns the old value into the new one.
+ */
+public final class JsonChange {
+    public enum Op {
+        ADD,
+        REMOVE,
+        REPLACE,
+        MOVE
+    }
+
+    private final Op op;
+    private final String path;
+    private final String from;
+    private final Object oldValue;
+    private final Object value;
+
+    JsonChange(Op op, String path, String from, Object oldValue, Object value) {
+        this.op = op;
+        this.path = path;
+        this.from = from;
+        this.oldValue = oldValue;
+        this.value = value;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return the JSON Pointer of the value that was changed, as it is when this change is applied
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the JSON Pointer the value was moved from, for {@link Op#MOVE}
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the value that was removed, replaced or moved
+     */
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * @return the value that was added or that replaced the old value
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JsonChange)) {
+            return false;
+        }
+        JsonChange that = (JsonChange) o;
+        return op == that.op && path.equals(that.path) && Objects.equals(from, that.from)
+                && Objects.equals(oldValue, that.oldValue) && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(op, path, from);
+    }
+
+    @Override
+    public String toString() {
+        return op + " " + (from == null ? "" : from + " -> ") + path;
+    }
+}
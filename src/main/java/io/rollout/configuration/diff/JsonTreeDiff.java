@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.configuration.diff;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Compares two JSON trees (maps, lists and plain values, as config entities are made of) and lists what changed at each path, instead
+ * of diffing the lines of their pretty printed JSON. The order of object keys doesn't matter.
+ * <p>
+ * Arrays are compared by trimming the unchanged ends, then matching the remaining elements by value, by their {@code id} or
+ * {@code name}, and finally in order. Matched elements that are out of order are moved, keeping the longest run that is still in
+ * order where it is. The index of each element as the changes are applied is tracked with a Fenwick tree, so an array of n
+ * elements costs O(n log n) on top of comparing the elements themselves.
+ */
+public final class JsonTreeDiff {
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
+    private static final List<String> IDENTITY_KEYS = Arrays.asList("id", "_id", "name");
+
+    private JsonTreeDiff() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    /**
+     * @param before the old value, or null if it was added
+     * @param after the new value, or null if it was removed
+     * @return the changes that turn {@code before} into {@code after}, in the order they must be applied
+     */
+    public static List<JsonChange> diff(Object before, Object after) {
+        List<JsonChange> changes = new ArrayList<>();
+        if (before == null && after != null) {
+            changes.add(new JsonChange(JsonChange.Op.ADD, "", null, null, after));
+        } else if (before != null && after == null) {
+            changes.add(new JsonChange(JsonChange.Op.REMOVE, "", null, before, null));
+        } else {
+            diff("", before, after, changes);
+        }
+        return changes;
+    }
+
+    private static void diff(String path, Object before, Object after, List<JsonChange> changes) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (before instanceof Map && after instanceof Map) {
+            diffObjects(path, (Map<?, ?>) before, (Map<?, ?>) after, changes);
+        } else if (before instanceof List && after instanceof List) {
+            diffArrays(path, (List<?>) before, (List<?>) after, changes);
+        } else {
+            changes.add(new JsonChange(JsonChange.Op.REPLACE, path, null, before, after));
+        }
+    }
+
+    private static void diffObjects(String path, Map<?, ?> before, Map<?, ?> after, List<JsonChange> changes) {
+        // Sorted so that the changes come out in the same order whatever order the keys were in
+        TreeSet<String> keys = new TreeSet<>();
+        before.keySet().forEach(key -> keys.add(String.valueOf(key)));
+        after.keySet().forEach(key -> keys.add(String.valueOf(key)));
+        for (String key : keys) {
+            String child = path + "/" + escape(key);
+            boolean inBefore = before.containsKey(key);
+            boolean inAfter = after.containsKey(key);
+            if (!inAfter) {
+                changes.add(new JsonChange(JsonChange.Op.REMOVE, child, null, before.get(key), null));
+            } else if (!inBefore) {
+                changes.add(new JsonChange(JsonChange.Op.ADD, child, null, null, after.get(key)));
+            } else {
+                diff(child, before.get(key), after.get(key), changes);
+            }
+        }
+    }
+
+    private static final int NEW = -1;
+
+    private static void diffArrays(String path, List<?> before, List<?> after, List<JsonChange> changes) {
+        int start = 0;
+        while (start < before.size() && start < after.size() && Objects.equals(before.get(start), after.get(start))) {
+            start++;
+        }
+        int beforeEnd = before.size();
+        int afterEnd = after.size();
+        while (beforeEnd > start && afterEnd > start && Objects.equals(before.get(beforeEnd - 1), after.get(afterEnd - 1))) {
+            beforeEnd--;
+            afterEnd--;
+        }
+        int oldCount = beforeEnd - start;
+        int newCount = afterEnd - start;
+
+        // source[j] is the index (relative to start) of the old element that ends up at new position j, or NEW
+        int[] source = new int[newCount];
+        Arrays.fill(source, NEW);
+        boolean[] matched = new boolean[oldCount];
+
+        // Elements that are unchanged, but may have moved
+        Map<Object, Deque<Integer>> byValue = new HashMap<>();
+        for (int i = 0; i < oldCount; i++) {
+            byValue.computeIfAbsent(before.get(start + i), v -> new ArrayDeque<>()).add(i);
+        }
+        for (int j = 0; j < newCount; j++) {
+            Deque<Integer> candidates = byValue.get(after.get(start + j));
+            if (candidates != null && !candidates.isEmpty()) {
+                source[j] = candidates.poll();
+                matched[source[j]] = true;
+            }
+        }
+
+        // Elements that changed but kept their identity
+        Map<Object, Deque<Integer>> byIdentity = new HashMap<>();
+        for (int i = 0; i < oldCount; i++) {
+            Object identity = matched[i] ? null : identity(before.get(start + i));
+            if (identity != null) {
+                byIdentity.computeIfAbsent(identity, v -> new ArrayDeque<>()).add(i);
+            }
+        }
+        for (int j = 0; j < newCount; j++) {
+            Object identity = source[j] == NEW ? identity(after.get(start + j)) : null;
+            Deque<Integer> candidates = identity == null ? null : byIdentity.get(identity);
+            if (candidates != null && !candidates.isEmpty()) {
+                source[j] = candidates.poll();
+                matched[source[j]] = true;
+            }
+        }
+
+        // Anything else is paired up in order, as long as neither element has an identity of its own
+        int next = 0;
+        for (int j = 0; j < newCount; j++) {
+            if (source[j] != NEW || identity(after.get(start + j)) != null) {
+                continue;
+            }
+            while (next < oldCount && (matched[next] || identity(before.get(start + next)) != null)) {
+                next++;
+            }
+            if (next == oldCount) {
+                break;
+            }
+            source[j] = next;
+            matched[next] = true;
+        }
+
+        // Where the elements are as the changes are applied. Each kept old element has a slot in its old order, and the elements that
+        // are added or moved are always placed straight after the last element placed, so they are grouped after the slot of the
+        // last element that stayed (or at the very front). So the index of an element is the number of elements in the slots and
+        // groups before it.
+        PositionTree positions = new PositionTree(2 * oldCount + 1);
+        for (int i = oldCount - 1; i >= 0; i--) {
+            if (matched[i]) {
+                positions.add(slot(i), 1);
+            } else {
+                changes.add(new JsonChange(JsonChange.Op.REMOVE, path + "/" + (start + i), null, before.get(start + i), null));
+            }
+        }
+
+        boolean[] stays = longestIncreasingRun(source);
+        int previous = -1; // the index of the element placed before this one
+        int group = 0; // where the elements placed next go
+        for (int j = 0; j < newCount; j++) {
+            int position;
+            if (source[j] == NEW) {
+                position = previous + 1;
+                positions.add(group, 1);
+                changes.add(new JsonChange(JsonChange.Op.ADD, path + "/" + (start + position), null, null, after.get(start + j)));
+            } else if (stays[j]) {
+                position = positions.countBefore(slot(source[j]));
+                group = slot(source[j]) + 1;
+            } else {
+                int from = positions.countBefore(slot(source[j]));
+                // Moves remove the element first, so anything after it shifts down one
+                position = from <= previous ? previous : previous + 1;
+                positions.add(slot(source[j]), -1);
+                positions.add(group, 1);
+                if (from != position) {
+                    changes.add(new JsonChange(JsonChange.Op.MOVE, path + "/" + (start + position), path + "/" + (start + from),
+                            before.get(start + source[j]), null));
+                }
+            }
+            previous = position;
+        }
+
+        // Everything is now in its place, so the paired elements can be compared at their new index
+        for (int j = 0; j < newCount; j++) {
+            if (source[j] != NEW) {
+                diff(path + "/" + (start + j), before.get(start + source[j]), after.get(start + j), changes);
+            }
+        }
+    }
+
+    /**
+     * @return the slot of the old element with the given index. The group of elements placed after it is the next one.
+     */
+    private static int slot(int index) {
+        return 2 * index + 1;
+    }
+
+    /**
+     * Counts the elements in each slot or group, and how many come before a given one, in logarithmic time (a Fenwick tree)
+     */
+    private static final class PositionTree {
+        private final int[] tree;
+
+        PositionTree(int size) {
+            tree = new int[size + 1];
+        }
+
+        void add(int index, int delta) {
+            for (int i = index + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        int countBefore(int index) {
+            int count = 0;
+            for (int i = index; i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return which of the (non {@link #NEW}) sources form the longest increasing run, i.e. can stay where they are
+     */
+    private static boolean[] longestIncreasingRun(int[] source) {
+        int[] tails = new int[source.length]; // position in source of the last element of the best run of each length
+        int[] predecessors = new int[source.length];
+        int length = 0;
+        for (int j = 0; j < source.length; j++) {
+            if (source[j] == NEW) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (source[tails[middle]] < source[j]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[j] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = j;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] stays = new boolean[source.length];
+        for (int j = length > 0 ? tails[length - 1] : -1; j >= 0; j = predecessors[j]) {
+            stays[j] = true;
+        }
+        return stays;
+    }
+
+    private static Object identity(Object element) {
+        if (element instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) element;
+            for (String key : IDENTITY_KEYS) {
+                Object identity = map.get(key);
+                if (identity != null) {
+                    return Arrays.asList(key, identity);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    /**
+     * @return the changes as a JSON Patch document, ready to be written by Jackson
+     */
+    public static List<Map<String, Object>> toJsonPatch(List<JsonChange> changes) {
+        List<Map<String, Object>> patch = new ArrayList<>(changes.size());
+        for (JsonChange change : changes) {
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("op", change.getOp().name().toLowerCase());
+            if (change.getOp() == JsonChange.Op.MOVE) {
+                operation.put("from", change.getFrom());
+            }
+            operation.put("path", change.getPath());
+            if (change.getOp() == JsonChange.Op.ADD || change.getOp() == JsonChange.Op.REPLACE) {
+                operation.put("value", change.getValue());
+            }
+            patch.add(operation);
+        }
+        return patch;
+    }
+
+    /**
+     * Render the changes as a unified diff, with a hunk for each change. The hunk header names the path, and each line is a path and
+     * its value as compact JSON.
+     */
+    public static String toUnifiedDiff(String name, List<JsonChange> changes) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("--- ").append(name).append('\n');
+        builder.append("+++ ").append(name).append('\n');
+        int oldLine = 1;
+        int newLine = 1;
+        for (JsonChange change : changes) {
+            String removed = null;
+            String added = null;
+            switch (change.getOp()) {
+                case ADD:
+                    added = line(change.getPath(), change.getValue());
+                    break;
+                case REMOVE:
+                    removed = line(change.getPath(), change.getOldValue());
+                    break;
+                case REPLACE:
+                    removed = line(change.getPath(), change.getOldValue());
+                    added = line(change.getPath(), change.getValue());
+                    break;
+                case MOVE:
+                    removed = line(change.getFrom(), change.getOldValue());
+                    added = line(change.getPath(), change.getOldValue());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + change.getOp());
+            }
+            int removedCount = removed == null ? 0 : 1;
+            int addedCount = added == null ? 0 : 1;
+            builder.append("@@ -").append(removedCount == 0 ? oldLine - 1 : oldLine).append(',').append(removedCount)
+                    .append(" +").append(addedCount == 0 ? newLine - 1 : newLine).append(',').append(addedCount)
+                    .append(" @@ ").append(display(change.getPath())).append('\n');
+            if (removed != null) {
+                builder.append('-').append(removed).append('\n');
+            }
+            if (added != null) {
+                builder.append('+').append(added).append('\n');
+            }
+            oldLine += removedCount;
+            newLine += addedCount;
+        }
+        return builder.toString();
+    }
+
+    private static String line(String path, Object value) {
+        try {
+            return display(path) + ": " + JSON_WRITER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String display(String path) {
+        return path.isEmpty() ? "/" : path;
+    }
+}
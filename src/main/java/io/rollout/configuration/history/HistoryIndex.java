@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.configuration.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * An index of the builds in which each flag (or target group) was added, changed or removed. Each name has a posting list of build
+ * numbers in ascending order, stored as varint encoded gaps with the kind of change in the low bits, so that a name that changes in a
+ * handful of builds only takes a handful of bytes. Looking up a name only decodes its own postings.
+ * <p>
+ * The index is updated one build at a time with {@link #add(int, Map)}, and can always be rebuilt from the builds' snapshots.
+ */
+public class HistoryIndex {
+    private static final int MAGIC = 0x464D4849; // FMHI
+    private static final int VERSION = 1;
+
+    public enum Change {
+        ADDED,
+        CHANGED,
+        REMOVED
+    }
+
+    public static final class Posting {
+        private final int build;
+        private final Change change;
+
+        Posting(int build, Change change) {
+            this.build = build;
+            this.change = change;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public Change getChange() {
+            return change;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Posting && ((Posting) o).build == build && ((Posting) o).change == change;
+        }
+
+        @Override
+        public int hashCode() {
+            return build * 31 + change.ordinal();
+        }
+
+        @Override
+        public String toString() {
+            return "#" + build + " " + change;
+        }
+    }
+
+    /**
+     * Build numbers in ascending order, each with a change. The list is only decoded when it is looked up or changed.
+     */
+    private static final class PostingList {
+        private static final int UNKNOWN = -1;
+
+        private byte[] data;
+        private int last;
+
+        PostingList(byte[] data) {
+            this.data = data;
+            this.last = data.length == 0 ? 0 : UNKNOWN;
+        }
+
+        /**
+         * @return the last build in the list, or 0 if it is empty
+         */
+        private int last() {
+            if (last == UNKNOWN) {
+                List<Posting> postings = decode();
+                last = postings.isEmpty() ? 0 : postings.get(postings.size() - 1).build;
+            }
+            return last;
+        }
+
+        void add(int build, Change change) {
+            int last = last();
+            if (build > last) {
+                // The common case, builds are indexed in order, so just append
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 2);
+                out.write(data, 0, data.length);
+                Varint.write(out, ((long) (build - last) << 2) | change.ordinal());
+                data = out.toByteArray();
+                this.last = build;
+            } else {
+                List<Posting> postings = decode();
+                postings.removeIf(posting -> posting.build == build);
+                postings.add(new Posting(build, change));
+                postings.sort((a, b) -> Integer.compare(a.build, b.build));
+                encode(postings);
+            }
+        }
+
+        private void encode(List<Posting> postings) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int previous = 0;
+            for (Posting posting : postings) {
+                Varint.write(out, ((long) (posting.build - previous) << 2) | posting.change.ordinal());
+                previous = posting.build;
+            }
+            data = out.toByteArray();
+            last = previous;
+        }
+
+        List<Posting> decode() {
+            List<Posting> postings = new ArrayList<>();
+            int[] position = {0};
+            int build = 0;
+            while (position[0] < data.length) {
+                long value = Varint.read(data, position);
+                build += (int) (value >>> 2);
+                postings.add(new Posting(build, Change.values()[(int) (value & 3)]));
+            }
+            return postings;
+        }
+    }
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    /**
+     * The builds that have been indexed, whether or not anything changed in them
+     */
+    private final PostingList builds;
+    /**
+     * The same builds, to look them up without decoding the list each time. Only filled in once it is needed.
+     */
+    private BitSet indexed;
+
+    public HistoryIndex() {
+        this(new byte[0]);
+    }
+
+    private HistoryIndex(byte[] builds) {
+        this.builds = new PostingList(builds);
+    }
+
+    private BitSet indexed() {
+        if (indexed == null) {
+            indexed = new BitSet();
+            builds.decode().forEach(posting -> indexed.set(posting.build));
+        }
+        return indexed;
+    }
+
+    public synchronized boolean isIndexed(int build) {
+        return indexed().get(build);
+    }
+
+    /**
+     * Record the changes made in a build. Does nothing if the build has already been indexed.
+     *
+     * @return true if the index was changed
+     */
+    public synchronized boolean add(int build, Map<String, Change> changes) {
+        if (isIndexed(build)) {
+            return false;
+        }
+        builds.add(build, Change.CHANGED);
+        indexed().set(build);
+        changes.forEach((name, change) -> postings.computeIfAbsent(name, n -> new PostingList(new byte[0])).add(build, change));
+        return true;
+    }
+
+    /**
+     * @return the builds where the entity was added, changed or removed, oldest first
+     */
+    public synchronized List<Posting> lookup(String name) {
+        PostingList list = postings.get(name);
+        return list == null ? Collections.emptyList() : list.decode();
+    }
+
+    /**
+     * @return the names of all entities that have ever changed, sorted
+     */
+    public synchronized List<String> getNames() {
+        return postings.keySet().stream().sorted().collect(Collectors.toList());
+    }
+
+    public synchronized int getBuildCount() {
+        return indexed().cardinality();
+    }
+
+    /**
+     * Save the index, replacing the file atomically so that readers never see a partial index
+     */
+    public synchronized void write(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, MAGIC);
+        Varint.write(out, VERSION);
+        writeBytes(out, builds.data);
+        Varint.write(out, postings.size());
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            writeBytes(out, entry.getKey().getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, entry.getValue().data);
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp.toPath())) {
+                out.writeTo(stream);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * @return the index saved in the file, or null if there is no such file
+     */
+    public static HistoryIndex read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        try {
+            int[] position = {0};
+            if (data.length < 4 || readInt(data, position) != MAGIC) {
+                throw new IOException(file + " is not a history index");
+            }
+            long version = Varint.read(data, position);
+            if (version != VERSION) {
+                throw new IOException("Unsupported history index version " + version + " in " + file);
+            }
+            HistoryIndex index = new HistoryIndex(readBytes(data, position));
+            long count = Varint.read(data, position);
+            for (long i = 0; i < count; i++) {
+                String name = new String(readBytes(data, position), StandardCharsets.UTF_8);
+                index.postings.put(name, new PostingList(readBytes(data, position)));
+            }
+            return index;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readInt(byte[] data, int[] position) {
+        int p = position[0];
+        position[0] += 4;
+        return ((data[p] & 0xFF) << 24) | ((data[p + 1] & 0xFF) << 16) | ((data[p + 2] & 0xFF) << 8) | (data[p + 3] & 0xFF);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        Varint.write(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] readBytes(byte[] data, int[] position) {
+        int length = (int) Varint.read(data, position);
+        if (length < 0 || position[0] + length > data.length) {
+            throw new IllegalArgumentException("Truncated data");
+        }
+        byte[] bytes = Arrays.copyOfRange(data, position[0], position[0] + length);
+        position[0] += length;
+        return bytes;
+    }
+}
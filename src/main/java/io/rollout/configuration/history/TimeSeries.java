@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.configuration.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * An append-only file of fixed size records, one per build, holding the size of the configuration and how much it changed. Appending
+ * a build never rewrites what is already there, and the whole series can be read without touching any build directories.
+ * <p>
+ * Builds may be appended in any order, and more than once (the last record for a build wins).
+ */
+public final class TimeSeries {
+    private static final int RECORD_SIZE = 4 + 8 + 6 * 4;
+
+    private TimeSeries() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    public static final class Point {
+        private final int build;
+        private final long timestamp;
+        private final int flags;
+        private final int enabledFlags;
+        private final int targetGroups;
+        private final int added;
+        private final int changed;
+        private final int removed;
+
+        public Point(int build, long timestamp, int flags, int enabledFlags, int targetGroups, int added, int changed, int removed) {
+            this.build = build;
+            this.timestamp = timestamp;
+            this.flags = flags;
+            this.enabledFlags = enabledFlags;
+            this.targetGroups = targetGroups;
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getEnabledFlags() {
+            return enabledFlags;
+        }
+
+        public int getTargetGroups() {
+            return targetGroups;
+        }
+
+        /**
+         * @return the number of flags added (or enabled) since the previous successful build
+         */
+        public int getAdded() {
+            return added;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return the number of flags removed (or disabled) since the previous successful build
+         */
+        public int getRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * Append a point to the series, creating the file if needed
+     */
+    public static synchronized void append(File file, Point point) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE)
+                .putInt(point.build)
+                .putLong(point.timestamp)
+                .putInt(point.flags)
+                .putInt(point.enabledFlags)
+                .putInt(point.targetGroups)
+                .putInt(point.added)
+                .putInt(point.changed)
+                .putInt(point.removed);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // Drop any partial record left by an earlier crash, so that the records stay aligned
+            long size = channel.size();
+            if (size % RECORD_SIZE != 0) {
+                channel.truncate(size - size % RECORD_SIZE);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the points in the series, ordered by build number. Empty if there is no such file.
+     */
+    public static List<Point> read(File file) throws IOException {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        TreeMap<Integer, Point> points = new TreeMap<>();
+        while (buffer.remaining() >= RECORD_SIZE) {
+            Point point = new Point(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            points.put(point.build, point);
+        }
+        return new ArrayList<>(points.values());
+    }
+}
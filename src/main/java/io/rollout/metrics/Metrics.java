@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and {@link Histogram}s recorded by the plugin, by name. Recording is lock-free, so it adds no contention to the
+ * builds or the pages being measured.
+ */
+public final class Metrics {
+    public static final String NANOSECONDS = "ns";
+    public static final String BYTES = "bytes";
+    public static final String ENTITIES = "entities";
+
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        throw new RuntimeException("Utility class. Do not instantiate");
+    }
+
+    public static Histogram histogram(String name, String unit) {
+        // Look up first, as computeIfAbsent locks even when the key is already there
+        Histogram histogram = HISTOGRAMS.get(name);
+        return histogram != null ? histogram : HISTOGRAMS.computeIfAbsent(name, n -> new Histogram(unit));
+    }
+
+    public static LongAdder counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @return the histograms, sorted by name
+     */
+    public static Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(HISTOGRAMS);
+    }
+
+    /**
+     * @return the current value of the counters, sorted by name
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> counters.put(name, counter.sum()));
+        return counters;
+    }
+
+    /**
+     * @return the sum of the counters whose names start with the prefix
+     */
+    public static long sumCounters(String prefix) {
+        long sum = 0;
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            if (counter.getKey().startsWith(prefix)) {
+                sum += counter.getValue().sum();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public static void reset() {
+        HISTOGRAMS.clear();
+        COUNTERS.clear();
+    }
+}
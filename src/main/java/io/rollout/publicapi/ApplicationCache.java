@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import io.rollout.publicapi.model.Application;
+import io.rollout.publicapi.model.Environment;
+import io.rollout.publicapi.model.Sha256;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the applications and environments each API token can see, for filling in drop downs. Tokens are only kept as hashes.
+ *
+ * @see RefreshingCache
+ */
+public class ApplicationCache {
+    private final RefreshingCache<String, List<Application>> applications;
+    private final RefreshingCache<String, List<Environment>> environments;
+
+    public ApplicationCache(Executor executor, long refresh, long expiry, TimeUnit unit, int maxEntries) {
+        this.applications = new RefreshingCache<>(executor, refresh, expiry, unit, maxEntries);
+        this.environments = new RefreshingCache<>(executor, refresh, expiry, unit, maxEntries);
+    }
+
+    public List<Application> listApplications(String accessToken) throws IOException {
+        try {
+            return applications.get(Sha256.hex(accessToken), () -> PublicApi.getInstance().listApplications(accessToken));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    public List<Environment> listEnvironments(String accessToken, String applicationId) throws IOException {
+        try {
+            return environments.get(Sha256.hex(accessToken) + " " + applicationId,
+                    () -> PublicApi.getInstance().listEnvironments(accessToken, applicationId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Forget everything cached for the token, e.g. because it has been found to be invalid
+     */
+    public void invalidate(String accessToken) {
+        String hash = Sha256.hex(accessToken);
+        applications.invalidate(hash);
+        environments.invalidateIf(key -> key.startsWith(hash + " "));
+    }
+
+    public void invalidateAll() {
+        applications.invalidateAll();
+        environments.invalidateAll();
+    }
+}
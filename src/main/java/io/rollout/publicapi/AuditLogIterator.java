@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import io.rollout.publicapi.model.AuditLog;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Lazily walks the pages of the audit log API. The next page is only requested once the consumer has used up the
+ * current one, so at most one page of {@link AuditLog} entries is held in memory at a time.
+ * <p>
+ * Any {@link IOException} thrown while fetching a page is rethrown as an {@link UncheckedIOException}.
+ */
+public class AuditLogIterator implements Iterator<AuditLog> {
+
+    /**
+     * Fetches a single page of audit logs.
+     */
+    @FunctionalInterface
+    public interface PageFetcher {
+        List<AuditLog> fetch(int page) throws IOException;
+    }
+
+    private final PageFetcher fetcher;
+    private final int pageSize;
+    private int nextPage;
+    private Iterator<AuditLog> current = Collections.emptyIterator();
+    private AuditLog firstOfPreviousPage;
+    private boolean lastPage;
+
+    public AuditLogIterator(PageFetcher fetcher, int firstPage, int pageSize) {
+        this.fetcher = fetcher;
+        this.nextPage = firstPage;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext() && !lastPage) {
+            fetchNextPage();
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public AuditLog next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private void fetchNextPage() {
+        List<AuditLog> page;
+        try {
+            page = fetcher.fetch(nextPage++);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Guard against the API ignoring the page parameter and handing us the same page again, which would otherwise
+        // loop forever.
+        if (page == null || page.isEmpty() || isSameEntry(firstOfPreviousPage, page.get(0))) {
+            lastPage = true;
+            current = Collections.emptyIterator();
+            return;
+        }
+
+        // A short page means there is nothing after it
+        lastPage = page.size() < pageSize;
+        firstOfPreviousPage = page.get(0);
+        current = page.iterator();
+    }
+
+    private static boolean isSameEntry(AuditLog a, AuditLog b) {
+        return a != null && b != null
+                && Objects.equals(a.getCreationDate(), b.getCreationDate())
+                && Objects.equals(a.getMessage(), b.getMessage());
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Coalesces identical GET requests made at the same time, eg many builds snapshotting the same application/environment within seconds
+ * of each other. Requests are identical when they are for the same URL (and so the same application, environment and entity type) with
+ * the same access token. Only one of them goes to the API, and the others are served a copy of its response body, or get its failure.
+ * <p>
+ * Small bodies of a known size are read into memory and shared. Bigger bodies, or bodies whose size isn't known up front (chunked),
+ * are streamed to the request that asked for them and copied to a temporary file as they go, and the others are served that file once
+ * it is complete. The files are deleted once the response can no longer be reused.
+ * <p>
+ * A caller that joins a request still in flight waits for it. An asynchronous call (see {@link ThrottlingInterceptor.Deferrable})
+ * doesn't hold up its dispatcher thread to do that: it is told to come back with a {@link ThrottlingInterceptor.RetryLaterException}
+ * instead.
+ *
+ * @see SingleFlight
+ */
+public class CoalescingInterceptor implements Interceptor {
+    private static final Logger LOGGER = Logger.getLogger(CoalescingInterceptor.class.getName());
+
+    /**
+     * Bodies bigger than this (or of unknown length) are copied to a temporary file to be shared, rather than read into memory
+     */
+    static final long DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    /**
+     * How long an asynchronous call that joins a request in flight is told to wait before it checks again
+     */
+    static final long DEFER_MILLIS = 100;
+    /**
+     * How long a synchronous call waits for a body being copied to a file before it gives up and makes its own request, in case the
+     * request that is reading it stops part way through
+     */
+    static final long SPOOL_WAIT_SECONDS = 60;
+
+    private final SingleFlight<String, Outcome> singleFlight;
+    private final long freshnessNanos;
+    private final long maxBodyBytes;
+    private final Queue<SpooledResponse> spooled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param freshness how long a response can be reused after it has been received
+     */
+    public CoalescingInterceptor(long freshness, TimeUnit unit) {
+        this(freshness, unit, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public CoalescingInterceptor(long freshness, TimeUnit unit, long maxBodyBytes) {
+        this.singleFlight = new SingleFlight<>(freshness, unit);
+        this.freshnessNanos = unit.toNanos(freshness);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * A response whose body has been read into memory, so it can be handed to several callers. The body is kept as UTF-8 bytes, which
+     * is half the size of the equivalent String.
+     */
+    static class BufferedResponse {
+        private final int code;
+        private final String message;
+        private final MediaType contentType;
+        private final byte[] body;
+
+        BufferedResponse(Response response) throws IOException {
+            this.code = response.code();
+            this.message = response.message();
+            this.contentType = response.body() == null ? null : response.body().contentType();
+            this.body = response.body() == null ? new byte[0] : response.body().bytes();
+        }
+
+        boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        Response toResponse(Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(code)
+                    .message(message)
+                    .body(ResponseBody.create(contentType, body))
+                    .build();
+        }
+    }
+
+    /**
+     * A successful response whose body is being copied to a file as the request that asked for it reads it
+     */
+    static class SpooledResponse {
+        private final String message;
+        private final MediaType contentType;
+        private final Path file;
+        /**
+         * Completed with the length of the body once it has all been copied
+         */
+        private final CompletableFuture<Long> length = new CompletableFuture<>();
+        private volatile long completedAt;
+
+        SpooledResponse(Response response, Path file) {
+            this.message = response.message();
+            this.contentType = response.body().contentType();
+            this.file = file;
+        }
+
+        boolean isComplete() {
+            return length.isDone() && !length.isCompletedExceptionally();
+        }
+
+        /**
+         * @return the response, or null if the body couldn't be copied
+         */
+        Response toResponse(Request request) throws IOException, InterruptedException {
+            long bytes;
+            try {
+                bytes = length.get(SPOOL_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            }
+            try {
+                return new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message(message)
+                        .body(ResponseBody.create(contentType, bytes, Okio.buffer(Okio.source(Files.newInputStream(file)))))
+                        .build();
+            } catch (NoSuchFileException e) {
+                // Deleted as it was no longer fresh
+                return null;
+            }
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not delete " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Copies the body to the file as it is read. If the body isn't read to the end, the copy is abandoned.
+     */
+    private static class SpoolingSource extends ForwardingSource {
+        private final SpooledResponse spool;
+        private final OutputStream out;
+        private long written;
+        private boolean done;
+
+        SpoolingSource(Source delegate, SpooledResponse spool) throws IOException {
+            super(delegate);
+            this.spool = spool;
+            this.out = Files.newOutputStream(spool.file);
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read;
+            try {
+                read = super.read(sink, byteCount);
+            } catch (IOException e) {
+                abandon(e);
+                throw e;
+            }
+            if (done) {
+                return read;
+            }
+            try {
+                if (read == -1) {
+                    out.close();
+                    done = true;
+                    spool.completedAt = System.nanoTime();
+                    spool.length.complete(written);
+                } else {
+                    sink.copyTo(out, sink.size() - read, read);
+                    written += read;
+                }
+            } catch (IOException e) {
+                // The caller still gets its body, the others make their own requests
+                abandon(e);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon(new IOException("The body was closed before it was read to the end"));
+            super.close();
+        }
+
+        private void abandon(IOException cause) {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+            spool.delete();
+            spool.length.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * What the leading request got: a response that can be shared, in memory or in a file, a failure to pass on, or neither because
+     * the body couldn't be shared
+     */
+    private static class Outcome {
+        private static final Outcome NOT_SHARED = new Outcome(null, null, null);
+
+        private final BufferedResponse response;
+        private final SpooledResponse spooled;
+        private final IOException failure;
+
+        Outcome(BufferedResponse response, SpooledResponse spooled, IOException failure) {
+            this.response = response;
+            this.spooled = spooled;
+            this.failure = failure;
+        }
+
+        boolean isSuccessful() {
+            return spooled != null || response != null && response.isSuccessful();
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        deleteStaleSpools();
+
+        String key = ResponseCache.key(request);
+        boolean deferrable = request.tag(ThrottlingInterceptor.Deferrable.class) != null;
+        if (deferrable && singleFlight.isLoading(key)) {
+            throw new ThrottlingInterceptor.RetryLaterException(request.url(), DEFER_MILLIS);
+        }
+
+        Response[] own = new Response[1];
+        Outcome outcome;
+        try {
+            outcome = singleFlight.execute(key, () -> {
+                Response response;
+                try {
+                    response = chain.proceed(request);
+                } catch (InterruptedIOException | ThrottlingInterceptor.RetryLaterException e) {
+                    // This request was cancelled, timed out or has to wait to be sent, which says nothing about the others. Let them
+                    // make their own.
+                    throw e;
+                } catch (IOException e) {
+                    return new Outcome(null, null, e);
+                }
+                long contentLength = response.body() == null ? 0 : response.body().contentLength();
+                if (contentLength >= 0 && contentLength <= maxBodyBytes) {
+                    try (Response r = response) {
+                        return new Outcome(new BufferedResponse(r), null, null);
+                    }
+                }
+                own[0] = response;
+                if (!response.isSuccessful()) {
+                    return Outcome.NOT_SHARED;
+                }
+                SpooledResponse spool;
+                try {
+                    spool = new SpooledResponse(response, Files.createTempFile("coalesced", ".body"));
+                    own[0] = response.newBuilder()
+                            .body(ResponseBody.create(spool.contentType, contentLength,
+                                    Okio.buffer(new SpoolingSource(response.body().source(), spool))))
+                            .build();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not copy the body of " + request.url() + " to share it", e);
+                    return Outcome.NOT_SHARED;
+                }
+                spooled.add(spool);
+                return new Outcome(null, spool, null);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.url());
+        }
+
+        if (!outcome.isSuccessful()) {
+            // Don't keep serving an error for the rest of the freshness window
+            singleFlight.invalidate(key);
+        }
+        if (own[0] != null) {
+            return own[0];
+        } else if (outcome.failure != null) {
+            // A new exception, so that each caller gets its own stack trace
+            throw new IOException("Request for " + request.url() + " failed: " + outcome.failure.getMessage(), outcome.failure);
+        } else if (outcome.spooled != null) {
+            if (deferrable && !outcome.spooled.length.isDone()) {
+                throw new ThrottlingInterceptor.RetryLaterException(request.url(), DEFER_MILLIS);
+            }
+            Response response;
+            try {
+                response = outcome.spooled.toResponse(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + request.url());
+            }
+            // If the body couldn't be copied after all, make our own request
+            return response != null ? response : chain.proceed(request);
+        } else if (outcome.response == null) {
+            // The response couldn't be shared, so make our own request
+            return chain.proceed(request);
+        }
+        return outcome.response.toResponse(request);
+    }
+
+    /**
+     * Delete the copied bodies that can no longer be reused, leaving a minute on top of the freshness window for the callers that were
+     * handed them to open them
+     */
+    private void deleteStaleSpools() {
+        long now = System.nanoTime();
+        spooled.removeIf(spool -> {
+            if (spool.length.isCompletedExceptionally()) {
+                return true;
+            }
+            if (spool.isComplete() && now - spool.completedAt > freshnessNanos + TimeUnit.MINUTES.toNanos(1)) {
+                spool.delete();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return the number of requests that were actually sent
+     */
+    public long getRequestCount() {
+        return singleFlight.getCallCount();
+    }
+
+    /**
+     * @return the number of requests that were served the response of another request
+     */
+    public long getCoalescedCount() {
+        return singleFlight.getCoalescedCount();
+    }
+}
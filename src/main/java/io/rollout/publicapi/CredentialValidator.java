@@ -0,0 +1,257 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import io.rollout.publicapi.model.Sha256;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers whether API tokens are valid, so that form validation doesn't call the Public API each time a form is shown.
+ * <ul>
+ *     <li>Results are keyed by the credentials ID and a hash of the token, so a rotated token is checked again straight away</li>
+ *     <li>Each result expires: valid tokens after a while (in case they are revoked), tokens the API rejected (401/403) sooner,
+ *     and failures that say nothing about the token (429, 5xx, network errors) sooner still</li>
+ *     <li>Checks run in the background, and concurrent checks of the same token share one call</li>
+ * </ul>
+ */
+public class CredentialValidator {
+    public enum State {
+        VALID,
+        INVALID,
+        /**
+         * The token could not be checked, e.g. because the API was rate limiting or unavailable
+         */
+        UNAVAILABLE,
+        /**
+         * The token is still being checked
+         */
+        CHECKING
+    }
+
+    public static final class Result {
+        static final Result VALID = new Result(State.VALID, null);
+        static final Result CHECKING = new Result(State.CHECKING, null);
+
+        private final State state;
+        private final String message;
+
+        Result(State state, String message) {
+            this.state = state;
+            this.message = message;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return why the token is invalid or couldn't be checked, if known
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Checks the token, throwing if it isn't valid
+     */
+    @FunctionalInterface
+    public interface Check {
+        void run() throws IOException;
+    }
+
+    private static final class Entry {
+        private final Result result;
+        private final long expiresAt;
+
+        Entry(Result result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Executor executor;
+    private final long validTtlNanos;
+    private final long invalidTtlNanos;
+    private final long failureTtlNanos;
+    private final int maxEntries;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Entry> results = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Result>> checks = new ConcurrentHashMap<>();
+
+    public CredentialValidator(Executor executor, long validTtl, long invalidTtl, long failureTtl, TimeUnit unit, int maxEntries) {
+        this(executor, validTtl, invalidTtl, failureTtl, unit, maxEntries, System::nanoTime);
+    }
+
+    CredentialValidator(Executor executor, long validTtl, long invalidTtl, long failureTtl, TimeUnit unit, int maxEntries, LongSupplier nanoClock) {
+        this.executor = executor;
+        this.validTtlNanos = unit.toNanos(validTtl);
+        this.invalidTtlNanos = unit.toNanos(invalidTtl);
+        this.failureTtlNanos = unit.toNanos(failureTtl);
+        this.maxEntries = maxEntries;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Get the remembered result for the token, or check it in the background if there isn't one
+     *
+     * @param wait how long to wait for a check to finish before returning {@link State#CHECKING}
+     */
+    public Result validate(String credentialsId, String token, Check check, long wait, TimeUnit unit) throws InterruptedException {
+        String key = key(credentialsId, token);
+        Result cached = getCached(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Result> created = new CompletableFuture<>();
+        CompletableFuture<Result> future = checks.putIfAbsent(key, created);
+        if (future == null) {
+            future = created;
+            try {
+                executor.execute(() -> run(key, check, created));
+            } catch (RejectedExecutionException e) {
+                checks.remove(key, created);
+                created.complete(new Result(State.UNAVAILABLE, "Could not start the check: " + e));
+            }
+        }
+
+        try {
+            return future.get(wait, unit);
+        } catch (TimeoutException e) {
+            return Result.CHECKING;
+        } catch (ExecutionException e) {
+            // run() always completes normally
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the remembered result for the token, or null if it hasn't been checked or the result has expired
+     */
+    public Result getCached(String credentialsId, String token) {
+        return getCached(key(credentialsId, token));
+    }
+
+    private Result getCached(String key) {
+        Entry entry = results.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (nanoClock.getAsLong() - entry.expiresAt >= 0) {
+            results.remove(key, entry);
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * Remember the outcome of a call made with the token elsewhere, e.g. when filling a drop down
+     */
+    public void record(String credentialsId, String token, IOException failure) {
+        put(key(credentialsId, token), classify(failure));
+    }
+
+    public void invalidate(String credentialsId) {
+        results.keySet().removeIf(key -> key.startsWith(credentialsId + " "));
+    }
+
+    public void invalidateAll() {
+        results.clear();
+    }
+
+    private void run(String key, Check check, CompletableFuture<Result> future) {
+        Result result;
+        try {
+            check.run();
+            result = Result.VALID;
+        } catch (IOException e) {
+            result = classify(e);
+        } catch (RuntimeException e) {
+            result = new Result(State.UNAVAILABLE, e.toString());
+        }
+        put(key, result);
+        checks.remove(key, future);
+        future.complete(result);
+    }
+
+    private static Result classify(IOException failure) {
+        if (failure == null) {
+            return Result.VALID;
+        } else if (failure instanceof PublicApiException && ((PublicApiException) failure).isUnauthorized()) {
+            return new Result(State.INVALID, failure.getMessage());
+        } else {
+            return new Result(State.UNAVAILABLE, failure.getMessage());
+        }
+    }
+
+    private void put(String key, Result result) {
+        long ttl;
+        switch (result.getState()) {
+            case VALID:
+                ttl = validTtlNanos;
+                break;
+            case INVALID:
+                ttl = invalidTtlNanos;
+                break;
+            default:
+                ttl = failureTtlNanos;
+                break;
+        }
+        if (ttl <= 0) {
+            results.remove(key);
+            return;
+        }
+        results.put(key, new Entry(result, nanoClock.getAsLong() + ttl));
+        if (results.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        long now = nanoClock.getAsLong();
+        results.values().removeIf(entry -> now - entry.expiresAt >= 0);
+        // Still too many, so drop whichever come first. They will just be checked again.
+        Iterator<String> keys = results.keySet().iterator();
+        while (results.size() > maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static String key(String credentialsId, String token) {
+        return credentialsId + " " + Sha256.hex(token);
+    }
+}
@@ -24,17 +24,33 @@
 
 package io.rollout.publicapi;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rollout.metrics.Metrics;
 import io.rollout.publicapi.model.Application;
 import io.rollout.publicapi.model.AuditLog;
+import io.rollout.publicapi.model.CompactValueDeserializer;
 import io.rollout.publicapi.model.Environment;
 import io.rollout.publicapi.model.Flag;
 import io.rollout.publicapi.model.TargetGroup;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -45,7 +61,11 @@ import okhttp3.Response;
  */
 public class PublicApi {
     private static final String API_URL = "https://x-api.rollout.io/public-api";
+    // The public API pages the audit log response, returning at most this many entries per page
+    private static final int AUDIT_LOG_PAGE_SIZE = 30;
+    private static final int AUDIT_LOG_FIRST_PAGE = 1;
     private static PublicApi instance;
+    private static ScheduledExecutorService retryScheduler;
 
     private ObjectMapper mapper;
     private final OkHttpClient client;
@@ -61,9 +81,10 @@ public class PublicApi {
         this.client = client;
         mapper = new ObjectMapper();
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(CompactValueDeserializer.module());
     }
 
-    public static PublicApi getInstance() {
+    public static synchronized PublicApi getInstance() {
         if (instance == null) {
             instance = new PublicApi();
         }
@@ -71,21 +92,269 @@ public class PublicApi {
         return instance;
     }
 
+    /**
+     * Replace the shared instance, eg with one whose {@link OkHttpClient} has been configured with a cache.
+     */
+    public static synchronized void setInstance(PublicApi publicApi) {
+        instance = publicApi;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Callback for consuming entities one at a time as they are parsed from a response.
+     */
+    @FunctionalInterface
+    public interface EntityCallback<T> {
+        void accept(T entity) throws IOException;
+    }
+
+    /**
+     * The result of an asynchronous call. Cancelling it cancels the HTTP call, but the callback may still be running on the dispatcher
+     * thread for a moment afterwards, so use {@link #awaitCallback} before releasing anything the callback uses.
+     */
+    public static final class AsyncCall<T> extends CompletableFuture<T> {
+        private final CountDownLatch callbackDone = new CountDownLatch(1);
+        /**
+         * The attempt in flight, and the next one if it is waiting to be sent
+         */
+        private volatile Call call;
+        private volatile ScheduledFuture<?> retry;
+
+        private void cancelCall() {
+            Call call = this.call;
+            if (call != null) {
+                call.cancel();
+            }
+            ScheduledFuture<?> retry = this.retry;
+            if (retry != null && retry.cancel(false)) {
+                // The next attempt will never run, so nor will the callback
+                callbackDone.countDown();
+            }
+        }
+
+        /**
+         * Wait for the callback to return, whether the call succeeded, failed or was cancelled
+         *
+         * @return false if it was still running when the timeout expired
+         */
+        public boolean awaitCallback(long timeout, TimeUnit unit) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return callbackDone.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        // Keep waiting, the callback has to be finished with before the caller can clean up
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
     private <T> T get(HttpUrl url, String accessToken, TypeReference<T> typeReference) throws IOException {
-        Request request = new Request.Builder()
+        return get(url, accessToken, body -> mapper.readValue(body, typeReference));
+    }
+
+    private Request newRequest(HttpUrl url, String accessToken) {
+        return new Request.Builder()
                 .addHeader("Authorization", "Bearer " + accessToken)
                 .get()
                 .url(url)
                 .build();
+    }
+
+    /**
+     * Performs the GET and hands the response body to the reader as a byte stream, so it is parsed as it arrives rather than being
+     * buffered into a String first. The response is always closed before returning.
+     */
+    private <T> T get(HttpUrl url, String accessToken, BodyReader<T> reader) throws IOException {
+        long start = System.nanoTime();
+        try (Response response = client.newCall(newRequest(url, accessToken)).execute()) {
+            return read(url, response, reader);
+        } catch (IOException | RuntimeException e) {
+            Metrics.counter("publicApi.errors." + endpoint(url)).increment();
+            throw e;
+        } finally {
+            Metrics.histogram("publicApi.latency." + endpoint(url), Metrics.NANOSECONDS).recordSince(start);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #get(HttpUrl, String, BodyReader)}. The request is queued on the client's dispatcher and the
+     * body is read on the dispatcher thread once the response arrives. Cancelling the returned future cancels the HTTP call.
+     * <p>
+     * The request is tagged as {@link ThrottlingInterceptor.Deferrable}, so when it has to wait for the rate limit or before a retry,
+     * the wait is scheduled here instead of blocking the dispatcher thread.
+     */
+    private <T> AsyncCall<T> getAsync(HttpUrl url, String accessToken, BodyReader<T> reader) {
+        AsyncCall<T> future = new AsyncCall<>();
+        long start = System.nanoTime();
+        Request request = newRequest(url, accessToken).newBuilder()
+                .tag(ThrottlingInterceptor.Deferrable.class, new ThrottlingInterceptor.Deferrable())
+                .build();
+        enqueue(client.newCall(request), future, url, reader);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                future.cancelCall();
+            }
+            if (error != null) {
+                Metrics.counter("publicApi.errors." + endpoint(url)).increment();
+            }
+            Metrics.histogram("publicApi.latency." + endpoint(url), Metrics.NANOSECONDS).recordSince(start);
+        });
+        return future;
+    }
 
-        Response response = client.newCall(request).execute();
+    private <T> void enqueue(Call call, AsyncCall<T> future, HttpUrl url, BodyReader<T> reader) {
+        future.call = call;
+        if (future.isCancelled()) {
+            // Cancelled while this attempt was waiting to be sent. The callback still runs, and fails.
+            call.cancel();
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (e instanceof ThrottlingInterceptor.RetryLaterException && !future.isDone()) {
+                    long delay = ((ThrottlingInterceptor.RetryLaterException) e).getDelayMillis();
+                    future.retry = getRetryScheduler().schedule(() -> enqueue(call.clone(), future, url, reader), delay, TimeUnit.MILLISECONDS);
+                    if (future.isCancelled()) {
+                        future.cancelCall();
+                    }
+                    return;
+                }
+                future.completeExceptionally(e);
+                future.callbackDone.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(read(url, r, reader));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    future.callbackDone.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the asynchronous calls that had to wait. It only ever enqueues calls, so one thread is enough.
+     */
+    private static synchronized ScheduledExecutorService getRetryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Public API retry scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
+    }
+
+    private <T> T read(HttpUrl url, Response response, BodyReader<T> reader) throws IOException {
+        Metrics.counter("publicApi.status." + response.code()).increment();
         if (response.isSuccessful()) {
-            return mapper.readValue(response.body().string(), typeReference);
+            CountingInputStream body = new CountingInputStream(response.body().byteStream());
+            try {
+                return reader.read(body);
+            } finally {
+                Metrics.histogram("publicApi.bytes." + endpoint(url), Metrics.BYTES).record(body.count);
+            }
         } else {
-            throw new RuntimeException(String.format("%d error performing GET on %s: %s", response.code(), url, response.body().string()));
+            throw new PublicApiException(response.code(), String.format("%d error performing GET on %s: %s", response.code(), url, response.body().string()));
+        }
+    }
+
+    /**
+     * Reads a JSON array, passing each element to the callback as soon as it has been parsed.
+     * The reader returns the number of elements in the array.
+     */
+    private <T> BodyReader<Integer> arrayReader(HttpUrl url, Class<T> type, EntityCallback<? super T> callback) {
+        return body -> {
+            int count = 0;
+            try (JsonParser parser = mapper.getFactory().createParser(body)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Expected a JSON array from " + url);
+                }
+                JsonToken token;
+                while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                    callback.accept(mapper.readValue(parser, type));
+                    count++;
+                }
+                // Anything else means the response was cut short or isn't what we expected, rather than the end of the list
+                if (token != JsonToken.END_ARRAY) {
+                    throw new IOException("Unexpected " + token + " in the JSON array from " + url);
+                }
+            }
+            return count;
+        };
+    }
+
+    /**
+     * @return the name of the endpoint the URL is for, e.g. {@code flags}, to record metrics against
+     */
+    static String endpoint(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        return segments.isEmpty() ? "" : segments.get(segments.size() - 1);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 
+    private static HttpUrl flagsUrl(String applicationId, String environmentName) {
+        return HttpUrl.parse(API_URL + "/applications/" + applicationId + "/" + environmentName + "/flags");
+    }
+
+    private static HttpUrl targetGroupsUrl(String applicationId) {
+        return HttpUrl.parse(API_URL + "/applications/" + applicationId + "/target-groups");
+    }
+
     public List<Application> listApplications(String accessToken) throws IOException {
         return get(HttpUrl.parse(API_URL + "/applications"), accessToken, new TypeReference<List<Application>>(){});
     }
@@ -95,19 +364,75 @@ public class PublicApi {
     }
 
     public List<Flag> getFlags(String accessToken, String applicationId, String environmentName) throws IOException {
-        return get(HttpUrl.parse(API_URL + "/applications/" + applicationId + "/" + environmentName + "/flags"), accessToken, new TypeReference<List<Flag>>(){});
+        return get(flagsUrl(applicationId, environmentName), accessToken, new TypeReference<List<Flag>>(){});
+    }
+
+    /**
+     * Parse the flags one at a time, without ever materializing the whole list.
+     *
+     * @return the number of flags
+     */
+    public int forEachFlag(String accessToken, String applicationId, String environmentName, EntityCallback<Flag> callback) throws IOException {
+        HttpUrl url = flagsUrl(applicationId, environmentName);
+        return get(url, accessToken, arrayReader(url, Flag.class, callback));
+    }
+
+    /**
+     * Asynchronous version of {@link #forEachFlag(String, String, String, EntityCallback)}. The callback is invoked on an HTTP
+     * dispatcher thread.
+     */
+    public AsyncCall<Integer> forEachFlagAsync(String accessToken, String applicationId, String environmentName, EntityCallback<Flag> callback) {
+        HttpUrl url = flagsUrl(applicationId, environmentName);
+        return getAsync(url, accessToken, arrayReader(url, Flag.class, callback));
     }
 
     public List<TargetGroup> getTargetGroups(String accessToken, String applicationId) throws IOException {
-        return get(HttpUrl.parse(API_URL + "/applications/" + applicationId + "/target-groups"), accessToken, new TypeReference<List<TargetGroup>>(){});
+        return get(targetGroupsUrl(applicationId), accessToken, new TypeReference<List<TargetGroup>>(){});
+    }
+
+    /**
+     * Parse the target groups one at a time, without ever materializing the whole list.
+     *
+     * @return the number of target groups
+     */
+    public int forEachTargetGroup(String accessToken, String applicationId, EntityCallback<TargetGroup> callback) throws IOException {
+        HttpUrl url = targetGroupsUrl(applicationId);
+        return get(url, accessToken, arrayReader(url, TargetGroup.class, callback));
+    }
+
+    /**
+     * Asynchronous version of {@link #forEachTargetGroup(String, String, EntityCallback)}. The callback is invoked on an HTTP
+     * dispatcher thread.
+     */
+    public AsyncCall<Integer> forEachTargetGroupAsync(String accessToken, String applicationId, EntityCallback<TargetGroup> callback) {
+        HttpUrl url = targetGroupsUrl(applicationId);
+        return getAsync(url, accessToken, arrayReader(url, TargetGroup.class, callback));
     }
 
+    /**
+     * Get all the audit logs since the given date. This holds the whole history in memory, so prefer
+     * {@link #streamAuditLogs(String, String, String, Date)} where the entries can be consumed one at a time.
+     */
     public List<AuditLog> getAuditLogs(String accessToken, String applicationId, String environmentName, Date startDate) throws IOException {
-        // TODO. The public API automatically paginates the response (30 items max). 😢
+        List<AuditLog> auditLogs = new ArrayList<>();
+        streamAuditLogs(accessToken, applicationId, environmentName, startDate).forEachRemaining(auditLogs::add);
+        return auditLogs;
+    }
+
+    /**
+     * Lazily iterate through the audit logs since the given date. The public API paginates the response, so each page
+     * is only requested once the previous one has been consumed.
+     */
+    public Iterator<AuditLog> streamAuditLogs(String accessToken, String applicationId, String environmentName, Date startDate) {
+        return new AuditLogIterator(page -> getAuditLogPage(accessToken, applicationId, environmentName, startDate, page), AUDIT_LOG_FIRST_PAGE, AUDIT_LOG_PAGE_SIZE);
+    }
+
+    private List<AuditLog> getAuditLogPage(String accessToken, String applicationId, String environmentName, Date startDate, int page) throws IOException {
         HttpUrl url = HttpUrl
                 .parse(API_URL + "/applications/" + applicationId + "/" + environmentName + "/auditlogs")
                 .newBuilder()
                 .addQueryParameter("startDate", startDate.toInstant().toString())
+                .addQueryParameter("page", String.valueOf(page))
                 .build();
         return get(url, accessToken, new TypeReference<List<AuditLog>>(){});
     }
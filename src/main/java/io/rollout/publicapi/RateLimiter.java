@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter, with a separate bucket for each key (eg each API token).
+ * <p>
+ * Callers reserve a permit and are told how long to wait before using it. When the bucket is empty, each reservation goes further into
+ * debt, so callers queue up behind each other in the order they arrived rather than all retrying at once. A bucket can also be
+ * paused, eg when the API has told us to back off.
+ * <p>
+ * A bucket that has filled up again, and isn't paused, is no different from a new one, so such buckets are dropped from time to time.
+ * This keeps tokens that are no longer used from being remembered forever.
+ */
+public class RateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    /**
+     * How long an empty bucket takes to fill up, which is how often idle buckets are looked for
+     */
+    private final long sweepIntervalNanos;
+    private volatile long lastSweep;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    /**
+     * When the permits reserved by callers that wait for them themselves (see {@link #reserveWithoutWaiting}) can be used
+     */
+    private final PriorityBlockingQueue<Long> deferredUntil = new PriorityBlockingQueue<>();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    RateLimiter(double permitsPerSecond, int burst, LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.nanoClock = nanoClock;
+        this.sweepIntervalNanos = (long) Math.ceil(burst / permitsPerNano);
+        this.lastSweep = nanoClock.getAsLong();
+    }
+
+    private class Bucket {
+        private double tokens = burst;
+        private long lastRefill = nanoClock.getAsLong();
+        private long pausedUntil = lastRefill;
+        private boolean evicted;
+
+        /**
+         * @return how long to wait, or -1 if the bucket has been evicted and the caller should get the new one
+         */
+        synchronized long reserve() {
+            if (evicted) {
+                return -1;
+            }
+            long now = nanoClock.getAsLong();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+            lastRefill = now;
+            tokens -= 1;
+            long wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+            return Math.max(wait, pausedUntil - now);
+        }
+
+        /**
+         * @return false if the bucket has been evicted, and the new one should be paused instead
+         */
+        synchronized boolean pause(long nanos) {
+            if (evicted) {
+                return false;
+            }
+            pausedUntil = Math.max(pausedUntil, nanoClock.getAsLong() + nanos);
+            return true;
+        }
+
+        synchronized boolean evictIfIdle(long now) {
+            if (tokens + (now - lastRefill) * permitsPerNano >= burst && pausedUntil <= now) {
+                evicted = true;
+            }
+            return evicted;
+        }
+    }
+
+    private Bucket bucket(String key) {
+        long now = nanoClock.getAsLong();
+        if (now - lastSweep >= sweepIntervalNanos) {
+            lastSweep = now;
+            buckets.values().removeIf(bucket -> bucket.evictIfIdle(now));
+        }
+        return buckets.computeIfAbsent(key, k -> new Bucket());
+    }
+
+    /**
+     * Reserve a permit for the key.
+     *
+     * @return how long to wait, in nanoseconds, before the permit may be used
+     */
+    public long reserve(String key) {
+        while (true) {
+            long wait = bucket(key).reserve();
+            if (wait >= 0) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Reserve a permit for a caller that can't block, and will wait for the permit itself. The wait is counted as throttling, as it
+     * is for {@link #acquire}.
+     *
+     * @return how long to wait, in nanoseconds, before the permit may be used
+     */
+    public long reserveWithoutWaiting(String key) {
+        long wait = reserveThrottled(key);
+        if (wait > 0) {
+            deferredUntil.add(nanoClock.getAsLong() + wait);
+        }
+        return wait;
+    }
+
+    private long reserveThrottled(String key) {
+        long wait = reserve(key);
+        if (wait > 0) {
+            throttledCount.increment();
+            throttledNanos.add(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Block until a permit for the key is available
+     */
+    public void acquire(String key) throws InterruptedException {
+        long wait = reserveThrottled(key);
+        if (wait > 0) {
+            waiting.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stop handing out permits for the key for the given time, eg because the server responded with a {@code Retry-After} header
+     */
+    public void pause(String key, long duration, TimeUnit unit) {
+        while (!bucket(key).pause(unit.toNanos(duration))) {
+            // Evicted just now, so pause the new one
+        }
+    }
+
+    /**
+     * @return the number of keys with a bucket
+     */
+    int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * @return the number of callers currently waiting for a permit, whether they are blocked in {@link #acquire} or waiting for a
+     * permit they reserved with {@link #reserveWithoutWaiting}
+     */
+    public int getQueueDepth() {
+        long now = nanoClock.getAsLong();
+        for (Long until = deferredUntil.peek(); until != null && until - now <= 0; until = deferredUntil.peek()) {
+            deferredUntil.remove(until);
+        }
+        return waiting.get() + deferredUntil.size();
+    }
+
+    /**
+     * @return the total time callers have spent waiting for a permit, in milliseconds
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    /**
+     * @return the number of times a caller has had to wait for a permit
+     */
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+}
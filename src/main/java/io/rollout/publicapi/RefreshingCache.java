@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache that serves stale values while it refreshes them in the background.
+ * <ul>
+ *     <li>A value younger than the refresh interval is returned as is</li>
+ *     <li>An older value is still returned straight away, and one background refresh is started. If the refresh fails the old value
+ *     is kept and isn't refreshed again until another interval has passed, so the loader runs at most once per interval per key</li>
+ *     <li>A value older than the expiry, or a missing one, is loaded by the caller. Concurrent callers share that load</li>
+ *     <li>If a refresh is rejected by the API (401/403), the value is dropped so the next caller sees the error</li>
+ * </ul>
+ */
+public class RefreshingCache<K, V> {
+    private static final class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+        private volatile long refreshAfter;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(V value, long loadedAt, long refreshAfter) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+            this.refreshAfter = refreshAfter;
+        }
+    }
+
+    private final Executor executor;
+    private final long refreshNanos;
+    private final long expiryNanos;
+    private final int maxEntries;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<K, V> loads;
+
+    public RefreshingCache(Executor executor, long refresh, long expiry, TimeUnit unit, int maxEntries) {
+        this(executor, refresh, expiry, unit, maxEntries, System::nanoTime);
+    }
+
+    RefreshingCache(Executor executor, long refresh, long expiry, TimeUnit unit, int maxEntries, LongSupplier nanoClock) {
+        this.executor = executor;
+        this.refreshNanos = unit.toNanos(refresh);
+        this.expiryNanos = Math.max(unit.toNanos(expiry), refreshNanos);
+        this.maxEntries = maxEntries;
+        this.nanoClock = nanoClock;
+        this.loads = new SingleFlight<>(0, unit, nanoClock);
+    }
+
+    public <E extends Exception> V get(K key, SingleFlight.Loader<V, E> loader) throws E, InterruptedException {
+        long now = nanoClock.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && now - entry.loadedAt < expiryNanos) {
+            if (now - entry.refreshAfter >= 0 && entry.refreshing.compareAndSet(false, true)) {
+                refresh(key, entry, loader);
+            }
+            return entry.value;
+        }
+
+        V value = loads.execute(key, loader);
+        put(key, value);
+        return value;
+    }
+
+    private <E extends Exception> void refresh(K key, Entry<V> entry, SingleFlight.Loader<V, E> loader) {
+        try {
+            executor.execute(() -> {
+                try {
+                    put(key, loads.execute(key, loader));
+                } catch (Exception e) {
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (e instanceof PublicApiException && ((PublicApiException) e).isUnauthorized()) {
+                        entries.remove(key, entry);
+                    } else {
+                        retryLater(entry);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void retryLater(Entry<V> entry) {
+        entry.refreshAfter = nanoClock.getAsLong() + refreshNanos;
+        entry.refreshing.set(false);
+    }
+
+    private void put(K key, V value) {
+        long now = nanoClock.getAsLong();
+        entries.put(key, new Entry<>(value, now, now + refreshNanos));
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        long now = nanoClock.getAsLong();
+        entries.values().removeIf(entry -> now - entry.loadedAt >= expiryNanos);
+        // Still too many, so drop the oldest
+        while (entries.size() > maxEntries) {
+            K oldest = null;
+            long oldestLoadedAt = 0;
+            for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+                if (oldest == null || entry.getValue().loadedAt - oldestLoadedAt < 0) {
+                    oldest = entry.getKey();
+                    oldestLoadedAt = entry.getValue().loadedAt;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            entries.remove(oldest);
+        }
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drop all the values whose key matches, e.g. everything cached for one API token
+     */
+    public void invalidateIf(Predicate<K> predicate) {
+        entries.keySet().removeIf(predicate);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
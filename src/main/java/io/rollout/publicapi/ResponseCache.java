@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import io.rollout.publicapi.model.Sha256;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A small in-memory cache of successful GET responses, keyed by the hash of the access token and the URL.
+ * <p>
+ * The on-disk {@link okhttp3.Cache} already revalidates responses that carry an {@code ETag} or {@code Last-Modified} header. This
+ * interceptor covers the responses that don't, by keeping their bodies for a short time-to-live, so that many builds asking for the
+ * same configuration within a few seconds only cause a single transfer. The cache is bounded by the total size of the bodies it holds,
+ * evicting the least recently used entries first. Bodies of a known size are only buffered if they are small enough to cache, and
+ * chunked bodies are copied as the caller streams them, so a large response is never held in memory.
+ */
+public class ResponseCache implements Interceptor {
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LongSupplier nanoClock;
+
+    // Access ordered, so that iteration starts with the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResponseCache(long ttl, TimeUnit unit, long maxBytes) {
+        this(ttl, unit, maxBytes, System::nanoTime);
+    }
+
+    ResponseCache(long ttl, TimeUnit unit, long maxBytes, LongSupplier nanoClock) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.nanoClock = nanoClock;
+        this.maxBytes = maxBytes;
+        // Don't let a single response push everything else out
+        this.maxEntryBytes = maxBytes / 4;
+    }
+
+    private static class Entry {
+        private final byte[] body;
+        private final String contentType;
+        private final long expiresAt;
+
+        Entry(byte[] body, String contentType, long expiresAt) {
+            this.body = body;
+            this.contentType = contentType;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (ttlNanos <= 0 || !"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+
+        String key = key(request);
+        Entry entry = get(key);
+        if (entry != null) {
+            hits.increment();
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(entry.contentType == null ? null : MediaType.parse(entry.contentType), entry.body))
+                    .build();
+        }
+        misses.increment();
+
+        Response response = chain.proceed(request);
+        if (!response.isSuccessful() || hasValidators(response) || response.body() == null) {
+            return response;
+        }
+        ResponseBody body = response.body();
+        long contentLength = body.contentLength();
+        if (contentLength > maxEntryBytes) {
+            return response;
+        }
+
+        MediaType contentType = body.contentType();
+        String type = contentType == null ? null : contentType.toString();
+        if (contentLength >= 0) {
+            // Small enough to buffer. Keep the bytes rather than a String, to halve the footprint.
+            byte[] bytes = body.bytes();
+            put(key, new Entry(bytes, type, nanoClock.getAsLong() + ttlNanos));
+            return response.newBuilder().body(ResponseBody.create(contentType, bytes)).build();
+        }
+
+        // Chunked, so the size isn't known up front. Keep a copy of the body as the caller streams it, giving up if it gets too big.
+        Source source = new CachingSource(body.source(), key, type);
+        return response.newBuilder().body(ResponseBody.create(contentType, -1, Okio.buffer(source))).build();
+    }
+
+    /**
+     * Copies the bytes read through it, and caches them once the whole body has been read. A body that grows beyond the size allowed
+     * for an entry, or that isn't read to the end, isn't cached.
+     */
+    private class CachingSource extends ForwardingSource {
+        private final String key;
+        private final String contentType;
+        private Buffer copy = new Buffer();
+
+        CachingSource(Source delegate, String key, String contentType) {
+            super(delegate);
+            this.key = key;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (copy == null) {
+                return read;
+            }
+            if (read == -1) {
+                put(key, new Entry(copy.readByteArray(), contentType, nanoClock.getAsLong() + ttlNanos));
+                copy = null;
+            } else if (copy.size() + read > maxEntryBytes) {
+                copy.clear();
+                copy = null;
+            } else {
+                sink.copyTo(copy, sink.size() - read, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (copy != null) {
+                copy.clear();
+                copy = null;
+            }
+            super.close();
+        }
+    }
+
+    private static boolean hasValidators(Response response) {
+        return response.header("ETag") != null || response.header("Last-Modified") != null;
+    }
+
+    private synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - nanoClock.getAsLong() <= 0) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        totalBytes += entry.body.length;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            totalBytes -= eldest.body.length;
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.body.length;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Key the responses on the token as well as the URL, so that one token can never be served a response fetched with another.
+     * Only the hash of the token is kept in memory.
+     */
+    static String key(Request request) {
+        return Sha256.hex(String.valueOf(request.header("Authorization"))) + " " + request.url();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
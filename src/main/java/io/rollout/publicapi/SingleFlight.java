@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Makes sure only one call for a given key is in flight at a time. Callers asking for a key that is already being loaded wait for
+ * that call to finish and share its result, instead of making the same call again. A successful result can also be reused for a
+ * short freshness window after it completes. Failures are never shared: the waiting callers make their own call instead.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * The call being coalesced
+     */
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private final long freshnessNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public SingleFlight(long freshness, TimeUnit unit) {
+        this(freshness, unit, System::nanoTime);
+    }
+
+    SingleFlight(long freshness, TimeUnit unit, LongSupplier nanoClock) {
+        this.freshnessNanos = unit.toNanos(freshness);
+        this.nanoClock = nanoClock;
+    }
+
+    private static class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private volatile long completedAt;
+    }
+
+    /**
+     * Load the value for the key, sharing the result with any other caller loading the same key at the same time
+     */
+    public <E extends Exception> V execute(K key, Loader<V, E> loader) throws E, InterruptedException {
+        evictStale();
+
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing = flights.putIfAbsent(key, flight);
+        while (existing != null && existing.result.isDone() && !isFresh(existing)) {
+            // A stale result. Replace it, unless another caller has got in first
+            if (flights.replace(key, existing, flight)) {
+                existing = null;
+            } else {
+                existing = flights.putIfAbsent(key, flight);
+            }
+        }
+
+        if (existing != null) {
+            try {
+                V value = existing.result.get();
+                coalesced.increment();
+                return value;
+            } catch (ExecutionException e) {
+                // Don't share failures (eg the leader's call was cancelled). Just make our own call.
+                return loader.load();
+            }
+        }
+
+        calls.increment();
+        try {
+            V value = loader.load();
+            flight.completedAt = nanoClock.getAsLong();
+            flight.result.complete(value);
+            if (freshnessNanos <= 0) {
+                flights.remove(key, flight);
+            }
+            return value;
+        } catch (Exception | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private boolean isFresh(Flight<V> flight) {
+        return !flight.result.isCompletedExceptionally() && nanoClock.getAsLong() - flight.completedAt < freshnessNanos;
+    }
+
+    private void evictStale() {
+        flights.values().removeIf(flight -> flight.result.isDone() && !isFresh(flight));
+    }
+
+    /**
+     * @return whether a call for the key is in flight, so that {@link #execute} would have to wait for it
+     */
+    public boolean isLoading(K key) {
+        Flight<V> flight = flights.get(key);
+        return flight != null && !flight.result.isDone();
+    }
+
+    public void invalidate(K key) {
+        flights.remove(key);
+    }
+
+    public void invalidateAll() {
+        flights.clear();
+    }
+
+    /**
+     * @return the number of calls that were actually made
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the number of callers that shared the result of another call instead of making their own
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+}
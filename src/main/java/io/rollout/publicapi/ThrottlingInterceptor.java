@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi;
+
+import io.rollout.metrics.Metrics;
+import io.rollout.publicapi.model.Sha256;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the calls to the Public API within its rate limits.
+ * <p>
+ * Every request takes a permit from a {@link RateLimiter} bucket for its access token, so all the callers sharing this interceptor
+ * (builds, form validation, ...) are throttled together. Requests rejected with {@code 429 Too Many Requests} or a transient
+ * {@code 5xx} are retried with jittered exponential backoff. When the API sends a {@code Retry-After} header, we wait for that long
+ * instead, and pause the whole bucket for the token so that the other callers back off as well.
+ * <p>
+ * Waiting blocks the calling thread. That is fine for a synchronous call, but an asynchronous call runs on one of the client's few
+ * dispatcher threads, and blocking them holds up every other asynchronous call. So a request tagged as {@link Deferrable} is never
+ * made to wait here. Instead the attempt fails with a {@link RetryLaterException}, and the caller sends a clone of the call once the
+ * delay has passed.
+ */
+public class ThrottlingInterceptor implements Interceptor {
+    private static final Logger LOGGER = Logger.getLogger(ThrottlingInterceptor.class.getName());
+
+    private final RateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    /**
+     * Tags a request whose caller will wait between attempts itself, rather than have this interceptor block the thread. The tag keeps
+     * track of the retries from one attempt to the next, so a new one is needed for each call.
+     */
+    public static final class Deferrable {
+        private volatile int attempt;
+        private volatile boolean permitReserved;
+    }
+
+    /**
+     * Thrown for a {@link Deferrable} request that has to wait, whether for a permit or before a retry. Send the call again (a clone of
+     * it, with the same tag) once the delay has passed.
+     */
+    public static final class RetryLaterException extends IOException {
+        private final long delayMillis;
+
+        RetryLaterException(HttpUrl url, long delayMillis) {
+            super("Retry " + url + " in " + delayMillis + " ms");
+            this.delayMillis = delayMillis;
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+    }
+
+    public ThrottlingInterceptor(RateLimiter rateLimiter, int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+        this.rateLimiter = rateLimiter;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = Sha256.hex(String.valueOf(request.header("Authorization")));
+        Deferrable deferrable = request.tag(Deferrable.class);
+
+        for (int attempt = deferrable == null ? 0 : deferrable.attempt; ; attempt++) {
+            if (deferrable == null) {
+                try {
+                    rateLimiter.acquire(key);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the rate limiter");
+                }
+            } else if (deferrable.permitReserved) {
+                // Reserved by the previous attempt, which was then told to wait for it
+                deferrable.permitReserved = false;
+            } else {
+                long wait = rateLimiter.reserveWithoutWaiting(key);
+                if (wait > 0) {
+                    deferrable.permitReserved = true;
+                    throw new RetryLaterException(request.url(), TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+                }
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (attempt >= maxRetries || chain.call().isCanceled()) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Retrying " + request.url() + " after error", e);
+                retries.increment();
+                Metrics.counter("publicApi.retries." + PublicApi.endpoint(request.url())).increment();
+                waitToRetry(request, deferrable, attempt, backoff(attempt));
+                continue;
+            }
+
+            if (!isRetryable(response.code()) || attempt >= maxRetries) {
+                return response;
+            }
+
+            long delay = backoff(attempt);
+            Long retryAfter = parseRetryAfter(response.header("Retry-After"));
+            if (response.code() == 429) {
+                rateLimited.increment();
+                if (retryAfter != null) {
+                    delay = Math.min(retryAfter, maxBackoffMillis);
+                    rateLimiter.pause(key, delay, TimeUnit.MILLISECONDS);
+                }
+            } else if (retryAfter != null) {
+                delay = Math.min(retryAfter, maxBackoffMillis);
+            }
+            response.close();
+
+            LOGGER.log(Level.FINE, "{0} response from {1}. Retrying in {2} ms", new Object[] {response.code(), request.url(), delay});
+            retries.increment();
+            Metrics.counter("publicApi.retries." + PublicApi.endpoint(request.url())).increment();
+            waitToRetry(request, deferrable, attempt, delay);
+        }
+    }
+
+    /**
+     * Wait before the next attempt, or for a deferrable request, have the caller wait
+     */
+    private static void waitToRetry(Request request, Deferrable deferrable, int attempt, long millis) throws IOException {
+        if (deferrable == null) {
+            sleep(millis);
+        } else {
+            deferrable.attempt = attempt + 1;
+            throw new RetryLaterException(request.url(), millis);
+        }
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 429 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Exponential backoff with jitter, so that callers that failed together don't all retry together
+     */
+    long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, which is either a number of seconds or an HTTP date
+     *
+     * @return the delay in milliseconds, or null if there is no (valid) header
+     */
+    static Long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (DateTimeParseException e2) {
+                return null;
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deserializes untyped values (such as the contents of a {@link ConfigEntity}) into a compact, immutable form: small objects become
+ * {@link CompactMap}s, arrays become fixed size lists, and repeated strings within a document share a single instance. The result is
+ * equal to what Jackson would otherwise produce, so equality and hashing of entities is unchanged.
+ */
+public class CompactValueDeserializer extends StdDeserializer<Object> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Objects with more keys than this are kept in a hash map, so that lookups stay fast
+     */
+    static final int MAX_COMPACT_SIZE = 16;
+    /**
+     * Longer strings are unlikely to be repeated, so aren't worth looking up
+     */
+    private static final int MAX_SHARED_LENGTH = 64;
+    private static final String STRINGS = CompactValueDeserializer.class.getName() + ".strings";
+
+    public CompactValueDeserializer() {
+        super(Object.class);
+    }
+
+    /**
+     * @return a module that makes a mapper deserialize untyped values with this
+     */
+    public static SimpleModule module() {
+        return new SimpleModule("CompactValues").addDeserializer(Object.class, new CompactValueDeserializer());
+    }
+
+    @Override
+    public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        switch (p.currentTokenId()) {
+            case JsonTokenId.ID_START_OBJECT:
+            case JsonTokenId.ID_FIELD_NAME:
+                return readObject(p, ctxt);
+            case JsonTokenId.ID_END_OBJECT:
+                return Collections.emptyMap();
+            case JsonTokenId.ID_START_ARRAY:
+                return readArray(p, ctxt);
+            case JsonTokenId.ID_STRING:
+                return share(p.getText(), ctxt);
+            case JsonTokenId.ID_NUMBER_INT:
+                return p.getNumberValue();
+            case JsonTokenId.ID_NUMBER_FLOAT:
+                return ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS) ? p.getDecimalValue() : p.getNumberValue();
+            case JsonTokenId.ID_TRUE:
+                return Boolean.TRUE;
+            case JsonTokenId.ID_FALSE:
+                return Boolean.FALSE;
+            case JsonTokenId.ID_NULL:
+                return null;
+            case JsonTokenId.ID_EMBEDDED_OBJECT:
+                return p.getEmbeddedObject();
+            default:
+                return ctxt.handleUnexpectedToken(Object.class, p);
+        }
+    }
+
+    private Object readObject(JsonParser p, DeserializationContext ctxt) throws IOException {
+        // Read into a map, so that a duplicate key is found without a scan. The last duplicate wins, as it would in a HashMap.
+        Map<String, Object> map = new LinkedHashMap<>();
+        String key = p.hasToken(JsonToken.START_OBJECT) ? p.nextFieldName() : p.currentName();
+        for (; key != null; key = p.nextFieldName()) {
+            p.nextToken();
+            map.put(key, deserialize(p, ctxt));
+        }
+        if (map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (map.size() > MAX_COMPACT_SIZE) {
+            return Collections.unmodifiableMap(map);
+        }
+        return new CompactMap(map.keySet().toArray(new String[0]), map.values().toArray());
+    }
+
+    private Object readArray(JsonParser p, DeserializationContext ctxt) throws IOException {
+        List<Object> values = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            values.add(deserialize(p, ctxt));
+        }
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(values.toArray()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String share(String value, DeserializationContext ctxt) {
+        if (value.length() > MAX_SHARED_LENGTH) {
+            return value;
+        }
+        // The strings are only shared within a single document, so that nothing is held on to once it has been read
+        Map<String, String> strings = (Map<String, String>) ctxt.getAttribute(STRINGS);
+        if (strings == null) {
+            strings = new HashMap<>();
+            ctxt.setAttribute(STRINGS, strings);
+        }
+        String shared = strings.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+}
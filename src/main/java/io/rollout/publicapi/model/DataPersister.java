@@ -24,11 +24,40 @@
 
 package io.rollout.publicapi.model;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.rollout.metrics.Metrics;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
 
 public class DataPersister {
@@ -42,29 +71,615 @@ public class DataPersister {
         throw new RuntimeException("Utility class. Do not instantiate");
     }
 
-    private static final ObjectMapper mapper = new ObjectMapper();
+    private static volatile SnapshotStore snapshotStore;
+
+    private static final Logger LOGGER = Logger.getLogger(DataPersister.class.getName());
+
+    /**
+     * The {@link SnapshotFormat} new snapshots are written in, unless changed with {@link #setFormat}
+     */
+    static final String FORMAT = System.getProperty(DataPersister.class.getName() + ".format", SnapshotFormat.PRETTY_JSON.name());
+
+    /**
+     * Save only every Nth snapshot in full, and the changes in between, unless changed with {@link #setKeyframeInterval}
+     */
+    static final int KEYFRAME_INTERVAL = Integer.getInteger(DataPersister.class.getName() + ".keyframeInterval", 0);
+
+    private static volatile SnapshotFormat format = parseFormat(FORMAT);
+
+    private static volatile int keyframeInterval = Math.max(0, KEYFRAME_INTERVAL);
+
+    /**
+     * Deltas are always small, so they are always compressed
+     */
+    private static final SnapshotFormat DELTA_FORMAT = SnapshotFormat.JSON_GZIP;
+
+    /**
+     * Guards against a broken chain of deltas that refers back to itself
+     */
+    private static final int MAX_DEPTH = 1000;
+
+    /**
+     * The number of snapshots rebuilt from deltas that are kept, so that reading several parts of the same snapshot (e.g. paging
+     * through a comparison) doesn't rebuild it from the chain of deltas every time
+     */
+    private static final int DELTA_CACHE_SIZE = 8;
+
+    private static final Map<List<Object>, List<JsonNode>> DELTA_CACHE = new LinkedHashMap<List<Object>, List<JsonNode>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, List<JsonNode>> eldest) {
+            return size() > DELTA_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Deduplicate the files written from now on using the given store. Pass null to write plain files.
+     */
+    public static void setSnapshotStore(SnapshotStore store) {
+        snapshotStore = store;
+    }
+
+    /**
+     * Write the files from now on in the given format. Files that were written in another format can still be read.
+     */
+    public static void setFormat(SnapshotFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException("format cannot be null");
+        }
+        DataPersister.format = format;
+    }
+
+    private static SnapshotFormat parseFormat(String name) {
+        try {
+            return SnapshotFormat.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown snapshot format {0}, using {1}", new Object[] {name, SnapshotFormat.PRETTY_JSON});
+            return SnapshotFormat.PRETTY_JSON;
+        }
+    }
+
+    public static SnapshotFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Save every {@code interval}th snapshot in full, and the ones in between as deltas (see {@link #writeDelta}). Pass 0 to always
+     * save snapshots in full. Deltas that were already written can still be read.
+     */
+    public static void setKeyframeInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        keyframeInterval = interval;
+    }
+
+    public static int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    private static OutputStream openStream(File dir, String environmentId, EntityType entityType, SnapshotFormat format) throws IOException {
+        File file = filename(dir, environmentId, entityType, format);
+        deleteOthers(dir, environmentId, entityType, format);
+        SnapshotStore store = snapshotStore;
+        return format.wrap(store == null ? Files.newOutputStream(file.toPath()) : store.open(file));
+    }
+
+    private static void deleteOthers(File dir, String environmentId, EntityType entityType, SnapshotFormat format) throws IOException {
+        // Don't leave a copy in another format behind, as it would be ambiguous which one is current
+        for (SnapshotFormat other : SnapshotFormat.values()) {
+            if (!other.getExtension().equals(format.getExtension())) {
+                Files.deleteIfExists(filename(dir, environmentId, entityType, other).toPath());
+            }
+        }
+        // Any index or delta belongs to the previous contents. The index will be rewritten once this has been written.
+        Files.deleteIfExists(filename(dir, environmentId, entityType, "index").toPath());
+        Files.deleteIfExists(deltaFilename(dir, environmentId, entityType).toPath());
+    }
 
     public static void writeValue(File dir, String environmentId, EntityType entityType, Object value) throws IOException {
-        mapper.writerWithDefaultPrettyPrinter().writeValue(filename(dir, environmentId, entityType), value);
+        long start = System.nanoTime();
+        SnapshotFormat format = DataPersister.format;
+        try (OutputStream out = openStream(dir, environmentId, entityType, format)) {
+            format.writer().writeValue(out, value);
+        }
+        recordWrite(start, filename(dir, environmentId, entityType, format));
+    }
+
+    private static void recordWrite(long start, File file) {
+        Metrics.histogram("persistence.write.duration", Metrics.NANOSECONDS).recordSince(start);
+        Metrics.histogram("persistence.write.bytes", Metrics.BYTES).record(file.length());
+    }
+
+    private static void recordRead(long start, File file) {
+        Metrics.histogram("persistence.read.duration", Metrics.NANOSECONDS).recordSince(start);
+        if (file != null) {
+            Metrics.histogram("persistence.read.bytes", Metrics.BYTES).record(file.length());
+        }
+    }
+
+    /**
+     * Write the values to disk as a JSON array, one element at a time, so that the whole collection never needs to be held in memory.
+     *
+     * @return the number of values written
+     */
+    public static int writeValues(File dir, String environmentId, EntityType entityType, Iterator<?> values) throws IOException {
+        int count = 0;
+        try (SnapshotWriter writer = openWriter(dir, environmentId, entityType)) {
+            while (values.hasNext()) {
+                writer.write(values.next());
+                count++;
+            }
+            writer.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count;
+    }
+
+    /**
+     * Open a writer that appends values to a JSON array on disk as they are written. The values go to a temporary file, which only
+     * replaces the saved snapshot once {@link SnapshotWriter#commit()} is called, so that a failed download never leaves a truncated
+     * (but still valid) snapshot behind.
+     */
+    public static SnapshotWriter openWriter(File dir, String environmentId, EntityType entityType) throws IOException {
+        return new SnapshotWriter(dir, environmentId, entityType, DataPersister.format, snapshotStore);
+    }
+
+    /**
+     * Writes a snapshot as a JSON array, one value at a time. Closing the writer without committing it discards what was written and
+     * leaves the saved snapshot as it was. The write is recorded in the metrics, from when the writer was opened, once it is committed.
+     */
+    public static final class SnapshotWriter implements Closeable {
+        private final File dir;
+        private final String environmentId;
+        private final EntityType entityType;
+        private final SnapshotFormat format;
+        private final SnapshotStore store;
+        private final File tmp;
+        private final MessageDigest digest = Sha256.newDigest();
+        private final SequenceWriter writer;
+        private final long start = System.nanoTime();
+        private boolean committed;
+
+        SnapshotWriter(File dir, String environmentId, EntityType entityType, SnapshotFormat format, SnapshotStore store) throws IOException {
+            this.dir = dir;
+            this.environmentId = environmentId;
+            this.entityType = entityType;
+            this.format = format;
+            this.store = store;
+            this.tmp = new File(filename(dir, environmentId, entityType, format).getPath() + ".tmp");
+            OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp.toPath()), digest);
+            this.writer = format.writer().writeValuesAsArray(format.wrap(out));
+        }
+
+        public void write(Object value) throws IOException {
+            writer.write(value);
+        }
+
+        /**
+         * Complete the array and replace the saved snapshot with it. The files that belong to the previous contents (a copy in another
+         * format, the index and the delta) are only deleted once the new snapshot is in place, so if this fails the previous contents
+         * can still be read.
+         */
+        public void commit() throws IOException {
+            if (committed) {
+                return;
+            }
+            writer.close();
+            File file = filename(dir, environmentId, entityType, format);
+            if (store == null) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                store.store(tmp.toPath(), Sha256.hex(digest.digest()), file.toPath());
+            }
+            committed = true;
+            deleteOthers(dir, environmentId, entityType, format);
+            recordWrite(start, file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
     }
 
     public static <T> T readValue(File dir, String environmentId, EntityType entityType, TypeReference<T> typeReference, T defaultValue) throws IOException {
-        final File file = filename(dir, environmentId, entityType);
+        long start = System.nanoTime();
+        final File source = findSource(dir, environmentId, entityType);
+        if (source == null) {
+            return defaultValue;
+        }
+        try {
+            return readValueFrom(dir, environmentId, entityType, typeReference, defaultValue);
+        } finally {
+            recordRead(start, source);
+        }
+    }
+
+    private static <T> T readValueFrom(File dir, String environmentId, EntityType entityType, TypeReference<T> typeReference, T defaultValue) throws IOException {
+        final File file = find(dir, environmentId, entityType);
 
+        if (file == null) {
+            List<JsonNode> entities = readDelta(dir, environmentId, entityType, 0);
+            if (entities == null) {
+                return defaultValue;
+            }
+            ObjectMapper mapper = DELTA_FORMAT.mapper();
+            return mapper.readValue(mapper.treeAsTokens(mapper.createArrayNode().addAll(entities)), typeReference);
+        }
+
+        SnapshotFormat format = SnapshotFormat.of(file);
+        try (InputStream in = open(file, format)) {
+            return format.mapper().readValue(in, typeReference);
+        }
+    }
+
+    /**
+     * Copy the saved file to the stream as JSON, whatever format it was saved in. Plain JSON files are copied as they are, and the
+     * others are converted to pretty printed JSON.
+     *
+     * @return false if there is no such file
+     */
+    public static boolean copyAsJson(File dir, String environmentId, EntityType entityType, OutputStream out) throws IOException {
+        final File file = find(dir, environmentId, entityType);
+
+        if (file == null) {
+            List<JsonNode> entities = readDelta(dir, environmentId, entityType, 0);
+            if (entities == null) {
+                return false;
+            }
+            try (JsonGenerator generator = SnapshotFormat.PRETTY_JSON.factory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.useDefaultPrettyPrinter();
+                SnapshotFormat.PRETTY_JSON.mapper().writeTree(generator, DELTA_FORMAT.mapper().createArrayNode().addAll(entities));
+            }
+            return true;
+        }
+
+        SnapshotFormat format = SnapshotFormat.of(file);
+        if (format.isPlainJson()) {
+            Files.copy(file.toPath(), out);
+            return true;
+        }
+
+        try (InputStream in = open(file, format);
+             JsonParser parser = format.factory().createParser(in);
+             JsonGenerator generator = SnapshotFormat.PRETTY_JSON.factory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.useDefaultPrettyPrinter();
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read only the values at the given positions of a saved array. The other values are skipped over without being deserialized.
+     *
+     * @return the values read, by position
+     */
+    public static <T> Map<Integer, T> readValues(File dir, String environmentId, EntityType entityType, Class<T> type, Set<Integer> positions) throws IOException {
+        if (positions.isEmpty()) {
+            return new HashMap<>();
+        }
+        long start = System.nanoTime();
+        try {
+            return readValuesAt(dir, environmentId, entityType, type, positions);
+        } finally {
+            // As for the other reads, the size of the file the values come from is recorded, even if it isn't read to the end
+            recordRead(start, findSource(dir, environmentId, entityType));
+        }
+    }
+
+    private static <T> Map<Integer, T> readValuesAt(File dir, String environmentId, EntityType entityType, Class<T> type, Set<Integer> positions) throws IOException {
+        Map<Integer, T> values = new HashMap<>();
+        final File file = find(dir, environmentId, entityType);
+
+        if (file == null) {
+            List<JsonNode> entities = readDelta(dir, environmentId, entityType, 0);
+            if (entities != null) {
+                for (int position : positions) {
+                    if (position >= 0 && position < entities.size()) {
+                        values.put(position, DELTA_FORMAT.mapper().treeToValue(entities.get(position), type));
+                    }
+                }
+            }
+            return values;
+        }
+
+        SnapshotFormat format = SnapshotFormat.of(file);
+        try (InputStream in = open(file, format);
+             JsonParser parser = format.factory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array in " + file);
+            }
+            int position = 0;
+            while (values.size() < positions.size() && parser.nextToken() != JsonToken.END_ARRAY) {
+                if (positions.contains(position)) {
+                    values.put(position, format.mapper().readValue(parser, type));
+                } else {
+                    parser.skipChildren();
+                }
+                position++;
+            }
+        }
+        return values;
+    }
+
+    public static void writeIndex(File dir, String environmentId, EntityType entityType, EntityIndex index) throws IOException {
+        File file = filename(dir, environmentId, entityType, "index");
+        SnapshotStore store = snapshotStore;
+        try (OutputStream out = store == null ? Files.newOutputStream(file.toPath()) : store.open(file)) {
+            SnapshotFormat.JSON.writer().writeValue(out, index);
+        }
+    }
+
+    /**
+     * @return the index of the saved entities, or null if there isn't one (e.g. it was saved by an older version)
+     */
+    public static EntityIndex readIndex(File dir, String environmentId, EntityType entityType) throws IOException {
+        File file = filename(dir, environmentId, entityType, "index");
         if (!file.exists()) {
-            return defaultValue;
+            return null;
+        }
+        return SnapshotFormat.JSON.mapper().readValue(file, EntityIndex.class);
+    }
+
+    /**
+     * Save the unified diff of the entities against the previous build, so that it doesn't need to be worked out again
+     */
+    public static void writeDiff(File dir, String environmentId, EntityType entityType, String diff) throws IOException {
+        File file = diffFilename(dir, environmentId, entityType);
+        SnapshotStore store = snapshotStore;
+        try (OutputStream out = store == null ? Files.newOutputStream(file.toPath()) : store.open(file)) {
+            out.write(diff.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return the saved diff, or null if it was never saved
+     */
+    public static String readDiff(File dir, String environmentId, EntityType entityType) throws IOException {
+        File file = diffFilename(dir, environmentId, entityType);
+        if (!file.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public static File diffFilename(File dir, String environmentId, EntityType entityType) {
+        return filename(dir, environmentId, entityType, "diff");
+    }
+
+    /**
+     * Replace the saved snapshot with the changes since the snapshot of an earlier build, if deltas are turned on (see
+     * {@link #setKeyframeInterval}). The changes are worked out from the {@link EntityIndex}es of the two snapshots, so only the
+     * entities that were added or changed are read. The snapshot is kept in full if the base is already the end of a chain of deltas
+     * as long as the keyframe interval, if either snapshot has no index, or if the entities were reordered.
+     *
+     * @param baseDir the directory of the earlier build, which must be next to {@code dir}
+     * @return true if the snapshot was replaced with a delta
+     */
+    public static boolean writeDelta(File dir, File baseDir, String environmentId, EntityType entityType) throws IOException {
+        int interval = keyframeInterval;
+        if (interval <= 1 || baseDir == null || entityType == EntityType.AUDIT_LOG) {
+            return false;
+        }
+        if (!dir.getAbsoluteFile().getParentFile().equals(baseDir.getAbsoluteFile().getParentFile())) {
+            throw new IllegalArgumentException(baseDir + " is not next to " + dir);
+        }
+        File file = find(dir, environmentId, entityType);
+        EntityIndex index = readIndex(dir, environmentId, entityType);
+        EntityIndex baseIndex = readIndex(baseDir, environmentId, entityType);
+        if (file == null || index == null || baseIndex == null) {
+            return false;
+        }
+        int depth;
+        if (find(baseDir, environmentId, entityType) != null) {
+            depth = 1;
+        } else {
+            SnapshotDelta baseDelta = readDeltaFile(baseDir, environmentId, entityType);
+            if (baseDelta == null) {
+                return false;
+            }
+            depth = baseDelta.getDepth() + 1;
+        }
+        if (depth >= interval) {
+            return false;
+        }
+
+        SnapshotDelta delta = SnapshotDelta.create(baseDir.getName(), depth, baseIndex, index,
+                positions -> readValues(dir, environmentId, entityType, JsonNode.class, positions));
+        if (delta == null) {
+            return false;
+        }
+        File deltaFile = deltaFilename(dir, environmentId, entityType);
+        File tmp = new File(deltaFile.getPath() + ".tmp");
+        try (OutputStream out = DELTA_FORMAT.wrap(Files.newOutputStream(tmp.toPath()))) {
+            DELTA_FORMAT.writer().writeValue(out, delta);
+        }
+        Files.move(tmp.toPath(), deltaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (SnapshotFormat other : SnapshotFormat.values()) {
+            Files.deleteIfExists(filename(dir, environmentId, entityType, other).toPath());
+        }
+        return true;
+    }
+
+    /**
+     * @return the directory of the snapshot the saved delta is based on, or null if the snapshot was saved in full
+     */
+    public static File getDeltaBase(File dir, String environmentId, EntityType entityType) throws IOException {
+        SnapshotDelta delta = readDeltaFile(dir, environmentId, entityType);
+        return delta == null ? null : new File(dir.getAbsoluteFile().getParentFile(), delta.getBase());
+    }
+
+    /**
+     * Save a snapshot that was saved as a delta in full, so that it no longer depends on its base. This must be done before the base
+     * is deleted.
+     *
+     * @return false if the snapshot was already saved in full, or was never saved
+     */
+    public static boolean writeKeyframe(File dir, String environmentId, EntityType entityType) throws IOException {
+        if (find(dir, environmentId, entityType) != null) {
+            return false;
+        }
+        List<JsonNode> entities = readDelta(dir, environmentId, entityType, 0);
+        if (entities == null) {
+            return false;
+        }
+        // Committing the snapshot removes the index and the delta, but the index still holds as the entities are the same. Until the
+        // commit succeeds, the delta is left as it is, so a failed write doesn't lose the snapshot.
+        EntityIndex index = readIndex(dir, environmentId, entityType);
+        try (SnapshotWriter writer = openWriter(dir, environmentId, entityType)) {
+            for (JsonNode entity : entities) {
+                writer.write(entity);
+            }
+            writer.commit();
+        }
+        if (index != null) {
+            writeIndex(dir, environmentId, entityType, index);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a snapshot was saved, either in full or as a delta
+     */
+    public static boolean exists(File dir, String environmentId, EntityType entityType) {
+        return find(dir, environmentId, entityType) != null || deltaFilename(dir, environmentId, entityType).exists();
+    }
+
+    /**
+     * Find the file the snapshot was saved in: the snapshot itself if it was saved in full, otherwise the delta.
+     *
+     * @return the file, or null if it was never saved
+     */
+    public static File findSource(File dir, String environmentId, EntityType entityType) {
+        File file = find(dir, environmentId, entityType);
+        if (file == null) {
+            file = deltaFilename(dir, environmentId, entityType);
         }
+        return file.exists() ? file : null;
+    }
 
-        return mapper.readValue(file, typeReference);
+    public static File deltaFilename(File dir, String environmentId, EntityType entityType) {
+        return filename(dir, environmentId, entityType, "delta");
+    }
+
+    private static SnapshotDelta readDeltaFile(File dir, String environmentId, EntityType entityType) throws IOException {
+        File file = deltaFilename(dir, environmentId, entityType);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = open(file, DELTA_FORMAT)) {
+            return DELTA_FORMAT.mapper().readValue(in, SnapshotDelta.class);
+        }
+    }
+
+    /**
+     * Rebuild a snapshot that was saved as a delta, by applying the chain of deltas to the full snapshot it starts from. The most
+     * recently rebuilt snapshots are kept for as long as their delta file is unchanged, so the returned list must not be modified.
+     *
+     * @return the entities, or null if there is no delta
+     */
+    private static List<JsonNode> readDelta(File dir, String environmentId, EntityType entityType, int depth) throws IOException {
+        File file = deltaFilename(dir, environmentId, entityType);
+        List<Object> key = Arrays.asList(file.getPath(), file.lastModified(), file.length());
+        synchronized (DELTA_CACHE) {
+            List<JsonNode> entities = DELTA_CACHE.get(key);
+            if (entities != null) {
+                return entities;
+            }
+        }
+        // Rebuild without holding the lock, as the chain may be long. Two readers of the same snapshot may both rebuild it, which is
+        // harmless.
+        List<JsonNode> entities = rebuild(dir, environmentId, entityType, depth);
+        if (entities != null) {
+            entities = Collections.unmodifiableList(entities);
+            synchronized (DELTA_CACHE) {
+                DELTA_CACHE.put(key, entities);
+            }
+        }
+        return entities;
+    }
+
+    private static List<JsonNode> rebuild(File dir, String environmentId, EntityType entityType, int depth) throws IOException {
+        SnapshotDelta delta = readDeltaFile(dir, environmentId, entityType);
+        if (delta == null) {
+            return null;
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IOException("The chain of deltas from " + dir + " is too long");
+        }
+        File baseDir = new File(dir.getAbsoluteFile().getParentFile(), delta.getBase());
+        List<JsonNode> base;
+        File baseFile = find(baseDir, environmentId, entityType);
+        if (baseFile != null) {
+            SnapshotFormat format = SnapshotFormat.of(baseFile);
+            try (InputStream in = open(baseFile, format)) {
+                JsonNode tree = format.mapper().readTree(in);
+                if (!(tree instanceof ArrayNode)) {
+                    throw new IOException("Expected an array in " + baseFile);
+                }
+                base = new ArrayList<>(tree.size());
+                tree.forEach(base::add);
+            }
+        } else {
+            base = readDelta(baseDir, environmentId, entityType, depth + 1);
+            if (base == null) {
+                throw new IOException("The snapshot in " + dir + " is based on " + baseDir + ", which no longer exists");
+            }
+        }
+        return delta.apply(base);
+    }
+
+    private static InputStream open(File file, SnapshotFormat format) throws IOException {
+        return format.wrap(new BufferedInputStream(Files.newInputStream(file.toPath())));
+    }
+
+    /**
+     * Find the saved file, in whichever format it was written.
+     *
+     * @return the file, or null if it was never saved
+     */
+    public static File find(File dir, String environmentId, EntityType entityType) {
+        // Look for the current format first, as that is the most likely
+        File file = filename(dir, environmentId, entityType, format);
+        if (file.exists()) {
+            return file;
+        }
+        for (SnapshotFormat other : SnapshotFormat.values()) {
+            file = filename(dir, environmentId, entityType, other);
+            if (file.exists()) {
+                return file;
+            }
+        }
+        return null;
     }
 
     public static File filename(File dir, String environmentId, EntityType entityType) {
+        return filename(dir, environmentId, entityType, format);
+    }
+
+    public static File filename(File dir, String environmentId, EntityType entityType, SnapshotFormat format) {
+        return filename(dir, environmentId, entityType, format.getExtension());
+    }
+
+    private static File filename(File dir, String environmentId, EntityType entityType, String extension) {
         if (StringUtils.isBlank(environmentId)) {
             throw new IllegalArgumentException("environmentId missing");
         }
         if (entityType == null) {
             throw new IllegalArgumentException("entityType cannot be null");
         }
-        return Paths.get(dir.getAbsolutePath(), environmentId + "-" + entityType + ".json").toFile();
+        return Paths.get(dir.getAbsolutePath(), environmentId + "-" + entityType + "." + extension).toFile();
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The name and a hash of the canonical JSON of every entity in a snapshot, in the order they appear in the snapshot. Two snapshots can be
+ * compared using their indexes alone, and only the entities that differ need to be read from the snapshots.
+ */
+public class EntityIndex {
+    public static final EntityIndex EMPTY = new EntityIndex(Collections.emptyList());
+
+    // Keys are sorted and there is no whitespace, so equal entities always give the same JSON
+    private static final ObjectWriter CANONICAL_WRITER = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true).writer();
+
+    private final List<Entry> entries;
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public EntityIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).position = i;
+        }
+    }
+
+    @JsonValue
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the entries for the enabled entities only. Their positions still refer to the whole snapshot.
+     */
+    @JsonIgnore
+    public List<Entry> getEnabledEntries() {
+        return entries.stream().filter(Entry::isEnabled).collect(Collectors.toList());
+    }
+
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    @JsonPropertyOrder({"name", "hash", "enabled"})
+    public static class Entry {
+        private final String name;
+        private final String hash;
+        private final boolean enabled;
+        private transient int position;
+
+        @JsonCreator
+        public Entry(@JsonProperty("name") String name, @JsonProperty("hash") String hash, @JsonProperty("enabled") boolean enabled) {
+            this.name = name;
+            this.hash = hash;
+            this.enabled = enabled;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * @return the position of the entity in the snapshot
+         */
+        @JsonIgnore
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Builds an index as the entities are written to a snapshot. Entities must be added in the same order they are written.
+     */
+    public static class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+
+        public synchronized Builder add(ConfigEntity entity) throws IOException {
+            boolean enabled = !(entity instanceof Flag) || ((Flag) entity).isEnabled();
+            entries.add(new Entry(entity.getName(), hash(entity), enabled));
+            return this;
+        }
+
+        public synchronized EntityIndex build() {
+            return new EntityIndex(new ArrayList<>(entries));
+        }
+    }
+
+    /**
+     * @return the hex encoded hash of the canonical JSON of the entity. Only the first 128 bits of SHA-256 are kept, which is plenty to
+     * tell entities with the same name apart.
+     */
+    public static String hash(Object entity) throws IOException {
+        MessageDigest digest = Sha256.newDigest();
+        try (OutputStream out = new DigestOutputStream(NULL_OUTPUT, digest)) {
+            CANONICAL_WRITER.writeValue(out, entity);
+        }
+        return Sha256.hex(digest.digest(), 16);
+    }
+
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The changes to a snapshot since the snapshot of an earlier build, its base. Applying the delta to the entities of the base gives
+ * back the entities of this snapshot, in the same order, so that the positions in its {@link EntityIndex} still hold.
+ */
+@JsonPropertyOrder({"base", "depth", "size", "removed", "changed", "added"})
+public class SnapshotDelta {
+    private final String base;
+    private final int depth;
+    private final int size;
+    private final List<String> removed;
+    private final Map<String, JsonNode> changed;
+    private final List<Insertion> added;
+
+    @JsonCreator
+    public SnapshotDelta(@JsonProperty("base") String base, @JsonProperty("depth") int depth, @JsonProperty("size") int size,
+                         @JsonProperty("removed") List<String> removed, @JsonProperty("changed") Map<String, JsonNode> changed,
+                         @JsonProperty("added") List<Insertion> added) {
+        this.base = base;
+        this.depth = depth;
+        this.size = size;
+        this.removed = removed == null ? Collections.emptyList() : removed;
+        this.changed = changed == null ? Collections.emptyMap() : changed;
+        this.added = added == null ? Collections.emptyList() : added;
+    }
+
+    /**
+     * @return the name of the directory the base snapshot is in, which is next to the directory of this snapshot
+     */
+    public String getBase() {
+        return base;
+    }
+
+    /**
+     * @return the number of deltas that need to be applied to a full snapshot to get this snapshot, including this one
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of entities in this snapshot
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public Map<String, JsonNode> getChanged() {
+        return changed;
+    }
+
+    public List<Insertion> getAdded() {
+        return added;
+    }
+
+    /**
+     * An entity that was added, and where it is in this snapshot
+     */
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    @JsonPropertyOrder({"position", "entity"})
+    public static class Insertion {
+        private final int position;
+        private final JsonNode entity;
+
+        @JsonCreator
+        public Insertion(@JsonProperty("position") int position, @JsonProperty("entity") JsonNode entity) {
+            this.position = position;
+            this.entity = entity;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public JsonNode getEntity() {
+            return entity;
+        }
+    }
+
+    interface EntityLoader {
+        Map<Integer, JsonNode> load(Set<Integer> positions) throws IOException;
+    }
+
+    /**
+     * Work out the delta from the indexes of the two snapshots, loading only the entities that were added or changed.
+     *
+     * @return the delta, or null if the snapshot can't be expressed as a delta (an entity name is used more than once, or the entities
+     * that are in both are in a different order)
+     */
+    static SnapshotDelta create(String base, int depth, EntityIndex baseIndex, EntityIndex index, EntityLoader loader) throws IOException {
+        Map<String, EntityIndex.Entry> baseByName = byName(baseIndex);
+        Map<String, EntityIndex.Entry> byName = byName(index);
+        if (baseByName == null || byName == null) {
+            return null;
+        }
+
+        List<String> removed = new ArrayList<>();
+        List<String> kept = new ArrayList<>();
+        for (EntityIndex.Entry entry : baseIndex.getEntries()) {
+            if (byName.containsKey(entry.getName())) {
+                kept.add(entry.getName());
+            } else {
+                removed.add(entry.getName());
+            }
+        }
+
+        Set<Integer> positions = new TreeSet<>();
+        List<String> changed = new ArrayList<>();
+        int next = 0;
+        for (EntityIndex.Entry entry : index.getEntries()) {
+            EntityIndex.Entry baseEntry = baseByName.get(entry.getName());
+            if (baseEntry == null) {
+                positions.add(entry.getPosition());
+                continue;
+            }
+            if (!kept.get(next++).equals(entry.getName())) {
+                return null;
+            }
+            if (!baseEntry.getHash().equals(entry.getHash())) {
+                positions.add(entry.getPosition());
+                changed.add(entry.getName());
+            }
+        }
+
+        Map<Integer, JsonNode> entities = loader.load(positions);
+        Map<String, JsonNode> changedEntities = new LinkedHashMap<>();
+        List<Insertion> added = new ArrayList<>();
+        Set<String> isChanged = new HashSet<>(changed);
+        for (int position : positions) {
+            JsonNode entity = entities.get(position);
+            if (entity == null) {
+                throw new IOException("The snapshot does not match its index: there is nothing at " + position);
+            }
+            String name = index.getEntries().get(position).getName();
+            if (isChanged.contains(name)) {
+                changedEntities.put(name, entity);
+            } else {
+                added.add(new Insertion(position, entity));
+            }
+        }
+        return new SnapshotDelta(base, depth, index.getEntries().size(), removed, changedEntities, added);
+    }
+
+    private static Map<String, EntityIndex.Entry> byName(EntityIndex index) {
+        Map<String, EntityIndex.Entry> byName = new HashMap<>();
+        for (EntityIndex.Entry entry : index.getEntries()) {
+            if (byName.put(entry.getName(), entry) != null) {
+                return null;
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * @param entities the entities of the base snapshot, in order
+     * @return the entities of this snapshot, in order
+     */
+    List<JsonNode> apply(List<JsonNode> entities) throws IOException {
+        Set<String> isRemoved = new HashSet<>(removed);
+        List<JsonNode> result = new ArrayList<>(size);
+        int next = 0;
+        for (JsonNode entity : entities) {
+            String name = entity.path("name").asText();
+            if (isRemoved.contains(name)) {
+                continue;
+            }
+            // Added entities go back where they were, which is in order of position
+            while (next < added.size() && added.get(next).getPosition() == result.size()) {
+                result.add(added.get(next++).getEntity());
+            }
+            result.add(changed.getOrDefault(name, entity));
+        }
+        while (next < added.size()) {
+            result.add(added.get(next++).getEntity());
+        }
+        if (result.size() != size) {
+            throw new IOException("The delta does not apply to its base: expected " + size + " entities but got " + result.size());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The formats that {@link DataPersister} can store snapshots in. The format of a file is recorded in its extension, so files written in
+ * any format (including the legacy pretty printed {@code .json} files) can always be read back.
+ */
+public enum SnapshotFormat {
+    /**
+     * Pretty printed JSON. The original format, and still the default.
+     */
+    PRETTY_JSON("json", false),
+    /**
+     * JSON without any whitespace
+     */
+    JSON("json", false),
+    /**
+     * Gzip compressed JSON
+     */
+    JSON_GZIP("json.gz", true),
+    /**
+     * <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>, a binary JSON format that is both smaller and
+     * faster to parse
+     */
+    SMILE("smile", false),
+    /**
+     * Gzip compressed Smile
+     */
+    SMILE_GZIP("smile.gz", true);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Sort the keys, so that the same configuration is always written out the same way. Flags and target groups are HashMaps, and
+    // would otherwise be written in an arbitrary order.
+    // Snapshots are read back with compact values, to keep the memory used by large configurations down.
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+            .registerModule(CompactValueDeserializer.module());
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory()).configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+            .registerModule(CompactValueDeserializer.module());
+
+    private final String extension;
+    private final boolean compressed;
+
+    SnapshotFormat(String extension, boolean compressed) {
+        this.extension = extension;
+        this.compressed = compressed;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    ObjectMapper mapper() {
+        return this == SMILE || this == SMILE_GZIP ? SMILE_MAPPER : JSON_MAPPER;
+    }
+
+    JsonFactory factory() {
+        return mapper().getFactory();
+    }
+
+    ObjectWriter writer() {
+        return this == PRETTY_JSON ? mapper().writerWithDefaultPrettyPrinter() : mapper().writer();
+    }
+
+    OutputStream wrap(OutputStream out) throws IOException {
+        return compressed ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    InputStream wrap(InputStream in) throws IOException {
+        return compressed ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * @return true if the files are plain JSON that can be served as is
+     */
+    public boolean isPlainJson() {
+        return this == PRETTY_JSON || this == JSON;
+    }
+
+    /**
+     * Work out the format a file was written in, from its extension
+     *
+     * @return the format, or null if the file isn't a snapshot
+     */
+    public static SnapshotFormat of(File file) {
+        String name = file.getName();
+        // Check the longest extensions first, so that .json.gz isn't mistaken for .json
+        for (SnapshotFormat format : new SnapshotFormat[] {JSON_GZIP, SMILE_GZIP, SMILE, PRETTY_JSON}) {
+            if (name.endsWith("." + format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015-2016 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.rollout.publicapi.model;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed store for snapshot files, so that identical snapshots are only stored once on disk.
+ * <p>
+ * Each snapshot is written to the store under the SHA-256 hash of its (canonical) content, and then hard linked into the build
+ * directory. A build directory therefore holds a reference to the shared copy rather than a copy of its own, and files are read back
+ * exactly as before. The file system keeps count of the links: once every build referencing a snapshot has been deleted, only the
+ * store's own link is left, and {@link #collectGarbage(long, TimeUnit)} removes it.
+ * <p>
+ * If the build directory can't be linked to the store (eg it lives on another file system), the snapshot is simply moved there instead.
+ */
+public class SnapshotStore {
+    private static final Logger LOGGER = Logger.getLogger(SnapshotStore.class.getName());
+
+    private final Path root;
+    private final Path tmp;
+
+    public SnapshotStore(File root) {
+        this.root = root.toPath();
+        this.tmp = this.root.resolve("tmp");
+    }
+
+    /**
+     * Open a stream for a snapshot that will end up at the target path. The content is only stored and linked to the target once the
+     * stream is closed.
+     */
+    public OutputStream open(File target) throws IOException {
+        Files.createDirectories(tmp);
+        Path file = Files.createTempFile(tmp, "snapshot", ".tmp");
+        MessageDigest digest = Sha256.newDigest();
+        return new FilterOutputStream(new DigestOutputStream(Files.newOutputStream(file), digest)) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                super.close();
+                store(file, Sha256.hex(digest.digest()), target.toPath());
+            }
+        };
+    }
+
+    /**
+     * Store a file that has already been written, and link it to the target. The file is linked into the store, or moved to the target.
+     * <p>
+     * The blob is created with a hard link, which fails if it already exists, so two builds storing the same content at the same time
+     * end up sharing it. A blob that is reused is linked to the target first and only then checked for: garbage collection only
+     * deletes blobs that nothing else links to, so once linked the content is safe. Nothing is done to the blob itself, as its
+     * timestamps are shared with every build that links to it.
+     *
+     * @param hash the SHA-256 hash of the file's content, as hex (see {@link Sha256})
+     */
+    void store(Path file, String hash, Path target) throws IOException {
+        Path blob = blob(hash, target);
+        while (true) {
+            boolean created;
+            try {
+                Files.createDirectories(blob.getParent());
+                Files.createLink(blob, file);
+                created = true;
+            } catch (FileAlreadyExistsException e) {
+                // Stored before, possibly by another build at the same time
+                created = false;
+            } catch (IOException | UnsupportedOperationException e) {
+                // The store isn't usable, just keep the snapshot in the build directory
+                LOGGER.log(Level.FINE, "Could not store " + target + " in " + root, e);
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, blob);
+            } catch (NoSuchFileException e) {
+                if (!created) {
+                    // Garbage collected since it was found, so store it again
+                    continue;
+                }
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.log(Level.FINE, "Could not link " + target + " to " + blob + ", keeping a copy instead", e);
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            Files.delete(file);
+            return;
+        }
+    }
+
+    /**
+     * The blob is named after its hash, keeping the target's extension so the format of the content stays recognisable. Blobs are
+     * spread over sub directories named after the first two characters of the hash, to keep directories small.
+     */
+    private Path blob(String hash, Path target) {
+        String name = target.getFileName().toString();
+        int dot = name.indexOf('.');
+        String extension = dot < 0 ? "" : name.substring(dot);
+        return root.resolve(hash.substring(0, 2)).resolve(hash + extension);
+    }
+
+    /**
+     * Delete the blobs that are no longer referenced by any build
+     *
+     * @param gracePeriod blobs younger than this are kept, as they may be about to be linked
+     * @return the number of blobs deleted
+     */
+    public int collectGarbage(long gracePeriod, TimeUnit unit) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - unit.toMillis(gracePeriod);
+        int deleted = 0;
+        try (Stream<Path> blobs = Files.walk(root, 2)) {
+            for (Path blob : (Iterable<Path>) blobs::iterator) {
+                if (Files.isRegularFile(blob) && Files.getLastModifiedTime(blob).toMillis() < cutoff && !isReferenced(blob)) {
+                    Files.deleteIfExists(blob);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return true if something other than the store links to the blob. Stale temporary files are never referenced.
+     */
+    private boolean isReferenced(Path blob) throws IOException {
+        if (blob.getParent().equals(tmp)) {
+            return false;
+        }
+        try {
+            return ((Number) Files.getAttribute(blob, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // We can't tell, so keep it rather than lose the deduplication
+            return true;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Lists the flags/target groups that changed, a page at a time, and only fetches and renders the diff of an entity when it is expanded.
+ * Each list is a <div class="cbfm-changes" data-url="..." data-type="FLAG|TARGET_GROUP">, with data-build="N" to compare with build #N
+ * rather than the previous successful build.
+ */
+(function () {
+  const configuration = {
+    drawFileList: false,
+    fileListToggle: false,
+    fileListStartVisible: false,
+    fileContentToggle: false,
+    matching: 'lines',
+    outputFormat: 'side-by-side',
+    synchronisedScroll: true,
+    highlight: true,
+    renderNothingWhenEmpty: false,
+  };
+
+  function getJson(url) {
+    return fetch(url, { credentials: 'same-origin' }).then(function (response) {
+      if (!response.ok) {
+        throw new Error(response.status + ' ' + response.statusText);
+      }
+      return response.json();
+    });
+  }
+
+  function query(type, build) {
+    return '?type=' + encodeURIComponent(type) + (build ? '&build=' + encodeURIComponent(build) : '');
+  }
+
+  function drawDiff(container, baseUrl, type, build, key, full) {
+    container.textContent = 'Loading…';
+    const url = baseUrl + 'entityDiff' + query(type, build) + '&key=' + encodeURIComponent(key) + (full ? '&full=true' : '');
+    getJson(url).then(function (result) {
+      container.textContent = '';
+      const target = document.createElement('div');
+      container.appendChild(target);
+      new Diff2HtmlUI(target, result.diff, configuration).draw();
+      if (result.truncated) {
+        const more = document.createElement('button');
+        more.type = 'button';
+        more.className = 'jenkins-button';
+        more.textContent = 'Show the whole diff (' + result.lines + ' lines)';
+        more.addEventListener('click', function () {
+          drawDiff(container, baseUrl, type, build, key, true);
+        });
+        container.appendChild(more);
+      }
+      if (result.kind === 'CHANGED') {
+        const patch = document.createElement('a');
+        patch.href = baseUrl + 'entityPatch' + query(type, build) + '&key=' + encodeURIComponent(key);
+        patch.textContent = 'JSON Patch';
+        container.appendChild(patch);
+      }
+    }).catch(function (error) {
+      container.textContent = 'Could not load the diff: ' + error.message;
+    });
+  }
+
+  function addChange(list, baseUrl, type, build, change) {
+    const details = document.createElement('details');
+    details.className = 'cbfm-change cbfm-change-' + change.kind.toLowerCase();
+    const summary = document.createElement('summary');
+    summary.textContent = change.name + ' (' + change.kind.toLowerCase() + ')';
+    details.appendChild(summary);
+    const container = document.createElement('div');
+    details.appendChild(container);
+    details.addEventListener('toggle', function () {
+      if (details.open && !details.dataset.loaded) {
+        details.dataset.loaded = 'true';
+        drawDiff(container, baseUrl, type, build, change.key, false);
+      }
+    });
+    list.appendChild(details);
+  }
+
+  function loadPage(element, offset) {
+    const baseUrl = element.getAttribute('data-url');
+    const type = element.getAttribute('data-type');
+    const build = element.getAttribute('data-build');
+    const list = element.querySelector('.cbfm-change-list');
+    const more = element.querySelector('.cbfm-more');
+    more.disabled = true;
+    getJson(baseUrl + 'changes' + query(type, build) + '&offset=' + offset).then(function (page) {
+      page.changes.forEach(function (change) {
+        addChange(list, baseUrl, type, build, change);
+      });
+      const next = page.offset + page.changes.length;
+      more.style.display = next < page.total ? '' : 'none';
+      more.disabled = false;
+      more.textContent = 'Show more (' + (page.total - next) + ' remaining)';
+      more.onclick = function () {
+        loadPage(element, next);
+      };
+    }).catch(function (error) {
+      list.appendChild(document.createTextNode('Could not load the changes: ' + error.message));
+    });
+  }
+
+  document.addEventListener('DOMContentLoaded', function () {
+    Array.from(document.getElementsByClassName('cbfm-changes')).forEach(function (element) {
+      loadPage(element, 0);
+    });
+  });
+})();
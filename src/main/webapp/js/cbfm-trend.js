@@ -0,0 +1,88 @@
+/*
+ * Draws the flag trend of an environment as a line chart, one point per build.
+ * Each chart is a <div class="cbfm-trend" data-url="..." data-build-url="...">.
+ */
+(function () {
+  const SVG = 'http://www.w3.org/2000/svg';
+  const WIDTH = 800;
+  const HEIGHT = 240;
+  const PADDING = 32;
+  const SERIES = [
+    { key: 'flags', label: 'Flags', color: '#1f77b4' },
+    { key: 'enabledFlags', label: 'Enabled flags', color: '#2ca02c' },
+    { key: 'targetGroups', label: 'Target groups', color: '#9467bd' },
+    { key: 'changed', label: 'Flags changed', color: '#ff7f0e' },
+  ];
+
+  function element(name, attributes) {
+    const node = document.createElementNS(SVG, name);
+    Object.keys(attributes).forEach(function (key) {
+      node.setAttribute(key, attributes[key]);
+    });
+    return node;
+  }
+
+  function draw(container, points, buildUrl) {
+    container.textContent = '';
+    if (points.length === 0) {
+      container.textContent = 'No builds have been recorded yet.';
+      return;
+    }
+    const max = Math.max(1, ...points.map(function (point) {
+      return Math.max(...SERIES.map(function (series) { return point[series.key]; }));
+    }));
+    const step = points.length > 1 ? (WIDTH - 2 * PADDING) / (points.length - 1) : 0;
+    const x = function (i) { return PADDING + i * step; };
+    const y = function (value) { return HEIGHT - PADDING - value * (HEIGHT - 2 * PADDING) / max; };
+
+    const svg = element('svg', { viewBox: '0 0 ' + WIDTH + ' ' + HEIGHT, width: '100%', role: 'img' });
+    svg.appendChild(element('line', { x1: PADDING, y1: HEIGHT - PADDING, x2: WIDTH - PADDING, y2: HEIGHT - PADDING, stroke: '#999' }));
+    const top = element('text', { x: 2, y: PADDING, 'font-size': 11 });
+    top.textContent = max;
+    svg.appendChild(top);
+
+    SERIES.forEach(function (series) {
+      const path = points.map(function (point, i) { return x(i) + ',' + y(point[series.key]); }).join(' ');
+      svg.appendChild(element('polyline', { points: path, fill: 'none', stroke: series.color, 'stroke-width': 2 }));
+    });
+
+    points.forEach(function (point, i) {
+      const link = element('a', { href: buildUrl + point.build + '/' });
+      const marker = element('circle', { cx: x(i), cy: y(point.flags), r: 3, fill: SERIES[0].color });
+      const title = element('title', {});
+      title.textContent = '#' + point.build + ' (' + new Date(point.timestamp).toLocaleString() + ')\n'
+        + SERIES.map(function (series) { return series.label + ': ' + point[series.key]; }).join('\n')
+        + '\nAdded: ' + point.added + ', removed: ' + point.removed;
+      marker.appendChild(title);
+      link.appendChild(marker);
+      svg.appendChild(link);
+    });
+    container.appendChild(svg);
+
+    const legend = document.createElement('div');
+    SERIES.forEach(function (series) {
+      const item = document.createElement('span');
+      item.style.color = series.color;
+      item.style.marginRight = '1em';
+      item.textContent = '■ ' + series.label;
+      legend.appendChild(item);
+    });
+    container.appendChild(legend);
+  }
+
+  document.addEventListener('DOMContentLoaded', function () {
+    document.querySelectorAll('.cbfm-trend').forEach(function (container) {
+      container.textContent = 'Loading…';
+      fetch(container.dataset.url, { credentials: 'same-origin' }).then(function (response) {
+        if (!response.ok) {
+          throw new Error(response.status + ' ' + response.statusText);
+        }
+        return response.json();
+      }).then(function (body) {
+        draw(container, body.points, container.dataset.buildUrl);
+      }).catch(function (e) {
+        container.textContent = 'Could not load the trend: ' + e.message;
+      });
+    });
+  });
+})();
@@ -0,0 +1,120 @@
+package com.cloudbees.fm.jenkins;
+
+import io.rollout.configuration.comparison.ComparisonResult;
+import io.rollout.publicapi.model.Flag;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class FeatureManagementConfigurationActionTest extends TestCase {
+
+    private static final String DIFF = "diff\n"
+            + "new file mode 100666\n"
+            + "--- a\n"
+            + "+++ a\n"
+            + "@@ -0,0 +1,3 @@\n"
+            + "+{\n"
+            + "+  \"name\" : \"a\"\n"
+            + "+}\n"
+            + "diff\n"
+            + "--- ab\n"
+            + "+++ ab\n"
+            + "@@ -1,3 +1,3 @@\n"
+            + " {\n"
+            + "-  \"enabled\" : true,\n"
+            + "+  \"enabled\" : false,\n"
+            + "   \"name\" : \"ab\"\n"
+            + " }\n"
+            + "# The diff is too big to show. 1 more changes are not shown.\n";
+
+    private static Flag flag(String name) {
+        Flag flag = new Flag();
+        flag.put("name", name);
+        flag.put("enabled", true);
+        return flag;
+    }
+
+    /**
+     * A comparison in which the flags were added, in an order unrelated to their names
+     */
+    private static ComparisonResult<Flag> added(int count) {
+        ComparisonResult<Flag> result = new ComparisonResult<>();
+        for (int i = 0; i < count; i++) {
+            result.addInSecondOnly(flag(String.format("flag%03d", (i * 37) % count)));
+        }
+        return result;
+    }
+
+    private static List<String> names(String diff) {
+        List<String> names = new ArrayList<>();
+        Matcher matcher = Pattern.compile("^--- (.*)$", Pattern.MULTILINE).matcher(diff);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+        return names;
+    }
+
+    @Test
+    public void testDiffIsInNameOrder() {
+        // Enough flags to be diffed in parallel
+        int count = FeatureManagementConfigurationAction.PARALLEL_DIFF_THRESHOLD * 4;
+        String diff = new FeatureManagementConfigurationAction(null, null).generateDiff(added(count));
+
+        List<String> names = names(diff);
+        assertEquals(count, names.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(String.format("flag%03d", i), names.get(i));
+        }
+        assertFalse(diff.contains(FeatureManagementConfigurationAction.CUT_NOTE));
+    }
+
+    @Test
+    public void testDiffSizeIsCapped() {
+        FeatureManagementConfigurationAction action = new FeatureManagementConfigurationAction(null, null);
+        int count = FeatureManagementConfigurationAction.PARALLEL_DIFF_THRESHOLD * 4;
+        int size = action.generateDiff(added(1)).length();
+
+        String diff = action.generateDiff(added(count), size * 3);
+        assertEquals(3, names(diff).size());
+        assertEquals("flag002", names(diff).get(2));
+        assertTrue(diff.endsWith(FeatureManagementConfigurationAction.CUT_NOTE + " " + (count - 3) + " more changes are not shown.\n"));
+
+        // Even the first diff is too big on its own
+        diff = action.generateDiff(added(count), size / 2);
+        assertEquals(1, names(diff).size());
+        assertTrue(diff.indexOf(FeatureManagementConfigurationAction.CUT_NOTE) <= size / 2);
+        assertTrue(diff.endsWith(FeatureManagementConfigurationAction.CUT_NOTE + " The rest of flag000 and " + (count - 1) + " more changes are not shown.\n"));
+    }
+
+    @Test
+    public void testChangesWithTheSameNameHaveTheirOwnKeys() {
+        ComparisonResult<Flag> result = new ComparisonResult<>();
+        result.addInSecondOnly(flag("b"));
+        result.addInSecondOnly(flag("a"));
+        result.addInFirstOnly(flag("a"));
+
+        List<EntityChange<Flag>> changes = EntityChange.of(result);
+        assertEquals(3, changes.size());
+        assertEquals("a", changes.get(0).getKey());
+        assertEquals("a#2", changes.get(1).getKey());
+        assertEquals("a", changes.get(1).getName());
+        assertEquals("b", changes.get(2).getKey());
+    }
+
+    private static String slice(String name) throws IOException {
+        return FeatureManagementConfigurationAction.sliceDiff(new BufferedReader(new StringReader(DIFF)), name);
+    }
+
+    @Test
+    public void testSliceDiff() throws IOException {
+        assertEquals(DIFF.substring(0, DIFF.indexOf("diff\n--- ab")), slice("a"));
+        assertEquals(DIFF.substring(DIFF.indexOf("diff\n--- ab"), DIFF.indexOf("# The diff")), slice("ab"));
+        assertNull("left out of the diff", slice("b"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.cloudbees.fm.jenkins;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class SnapshotFileResponseTest extends TestCase {
+
+    private static String range(String header, long length) {
+        long[] range = SnapshotFileResponse.parseRange(header, length);
+        if (range == null) {
+            return "all";
+        } else if (range == SnapshotFileResponse.UNSATISFIABLE) {
+            return "unsatisfiable";
+        } else {
+            return range[0] + "-" + range[1];
+        }
+    }
+
+    @Test
+    public void testParseRange() {
+        assertEquals("all", range(null, 100));
+        assertEquals("0-9", range("bytes=0-9", 100));
+        assertEquals("50-99", range("bytes=50-", 100));
+        assertEquals("90-99", range("bytes=-10", 100));
+        assertEquals("0-99", range("bytes=-1000", 100));
+        assertEquals("90-99", range("bytes=90-1000", 100));
+        assertEquals("unsatisfiable", range("bytes=100-", 100));
+        assertEquals("all", range("bytes=9-0", 100));
+        assertEquals("all", range("bytes=0-1,5-6", 100));
+        assertEquals("all", range("items=0-1", 100));
+        assertEquals("all", range("bytes=x-1", 100));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(SnapshotFileResponse.acceptsGzip("gzip, deflate, br"));
+        assertTrue(SnapshotFileResponse.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        assertFalse(SnapshotFileResponse.acceptsGzip("gzip;q=0, deflate"));
+        assertFalse(SnapshotFileResponse.acceptsGzip("identity"));
+        assertFalse(SnapshotFileResponse.acceptsGzip(null));
+    }
+}
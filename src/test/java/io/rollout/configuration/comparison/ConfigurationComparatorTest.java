@@ -0,0 +1,80 @@
+package io.rollout.configuration.comparison;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rollout.publicapi.model.EntityIndex;
+import io.rollout.publicapi.model.Flag;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class ConfigurationComparatorTest extends TestCase {
+
+    private static Flag flag(String name, Object value) {
+        Flag flag = new Flag();
+        flag.put("name", name);
+        flag.put("enabled", true);
+        flag.put("value", value);
+        return flag;
+    }
+
+    private static EntityIndex index(List<Flag> flags) throws IOException {
+        EntityIndex.Builder builder = new EntityIndex.Builder();
+        for (Flag flag : flags) {
+            builder.add(flag);
+        }
+        // Round trip it, as it would be when read from disk
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.readValue(mapper.writeValueAsString(builder.build()), EntityIndex.class);
+    }
+
+    @Test
+    public void testDuplicateNames() {
+        List<Flag> first = Arrays.asList(flag("a", 1), flag("a", 2), flag("b", 1));
+        List<Flag> second = Arrays.asList(flag("a", 1), flag("a", 3), flag("b", 1));
+
+        ComparisonResult<Flag> result = new ConfigurationComparator().compare(first, second);
+
+        assertEquals(2, result.getInBothAndTheSameCount());
+        assertEquals(1, result.getInBothButDifferent().size());
+        assertEquals(3, result.getInBothButDifferent().iterator().next().getRight().get("value"));
+    }
+
+    @Test
+    public void testIndexedComparisonOnlyLoadsChanges() throws IOException {
+        List<Flag> first = new ArrayList<>();
+        List<Flag> second = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            first.add(flag("flag" + i, i));
+            second.add(flag("flag" + i, i == 50 ? -1 : i));
+        }
+        first.add(flag("deleted", 0));
+        second.add(0, flag("added", 0));
+
+        AtomicInteger loaded = new AtomicInteger();
+        ComparisonResult<Flag> result = new ConfigurationComparator().compare(
+                index(first).getEntries(), positions -> load(first, positions, loaded),
+                index(second).getEntries(), positions -> load(second, positions, loaded));
+
+        assertEquals(99, result.getInBothAndTheSameCount());
+        assertEquals("deleted", result.getInFirstOnly().iterator().next().getName());
+        assertEquals("added", result.getInSecondOnly().iterator().next().getName());
+        assertEquals(-1, result.getInBothButDifferent().iterator().next().getRight().get("value"));
+        assertEquals(4, loaded.get());
+    }
+
+    private static Map<Integer, Flag> load(List<Flag> flags, Set<Integer> positions, AtomicInteger loaded) {
+        Map<Integer, Flag> result = new HashMap<>();
+        for (Integer position : positions) {
+            result.put(position, flags.get(position));
+        }
+        loaded.addAndGet(result.size());
+        return result;
+    }
+}
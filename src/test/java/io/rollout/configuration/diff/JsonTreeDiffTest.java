@@ -0,0 +1,171 @@
+package io.rollout.configuration.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class JsonTreeDiffTest extends TestCase {
+
+    @Test
+    public void testPathLevelChanges() {
+        Map<String, Object> before = map("name", "flag", "enabled", false, "conditions", Arrays.asList(
+                map("name", "beta", "value", true),
+                map("name", "alpha", "value", false)));
+        Map<String, Object> after = map("conditions", Arrays.asList(
+                map("name", "alpha", "value", true),
+                map("name", "beta", "value", true)), "name", "flag", "description", "new");
+
+        List<JsonChange> changes = JsonTreeDiff.diff(before, after);
+        assertEquals(Arrays.asList(
+                new JsonChange(JsonChange.Op.MOVE, "/conditions/0", "/conditions/1", map("name", "alpha", "value", false), null),
+                new JsonChange(JsonChange.Op.REPLACE, "/conditions/0/value", null, false, true),
+                new JsonChange(JsonChange.Op.ADD, "/description", null, null, "new"),
+                new JsonChange(JsonChange.Op.REMOVE, "/enabled", null, false, null)), changes);
+        assertEquals(after, apply(before, changes));
+
+        assertEquals("--- flag\n+++ flag\n"
+                        + "@@ -1,1 +1,1 @@ /conditions/0\n-/conditions/1: {\"name\":\"alpha\",\"value\":false}\n+/conditions/0: {\"name\":\"alpha\",\"value\":false}\n"
+                        + "@@ -2,1 +2,1 @@ /conditions/0/value\n-/conditions/0/value: false\n+/conditions/0/value: true\n"
+                        + "@@ -2,0 +3,1 @@ /description\n+/description: \"new\"\n"
+                        + "@@ -3,1 +3,0 @@ /enabled\n-/enabled: false\n",
+                JsonTreeDiff.toUnifiedDiff("flag", changes));
+        assertEquals(map("op", "move", "from", "/conditions/1", "path", "/conditions/0"), JsonTreeDiff.toJsonPatch(changes).get(0));
+    }
+
+    @Test
+    public void testPatchesApply() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            Object before = randomValue(random, 3);
+            Object after = mutate(random, before, 3);
+            assertEquals("Iteration " + i, after, apply(before, JsonTreeDiff.diff(before, after)));
+        }
+    }
+
+    private static Map<String, Object> map(Object... keysAndValues) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static Object randomValue(Random random, int depth) {
+        int kind = depth == 0 ? 2 : random.nextInt(4);
+        if (kind == 0) {
+            List<Object> list = new ArrayList<>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                list.add(randomValue(random, depth - 1));
+            }
+            return list;
+        } else if (kind == 1) {
+            Map<String, Object> map = new HashMap<>();
+            for (int i = random.nextInt(5); i > 0; i--) {
+                map.put(random.nextBoolean() ? "name" : "k" + random.nextInt(6), randomValue(random, depth - 1));
+            }
+            return map;
+        } else {
+            return random.nextInt(4);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object mutate(Random random, Object value, int depth) {
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                int action = random.nextInt(6);
+                if (action == 0) {
+                    continue;
+                } else if (action == 1) {
+                    list.add(randomValue(random, depth - 1));
+                }
+                list.add(action == 2 ? mutate(random, element, depth - 1) : element);
+            }
+            if (list.size() > 1 && random.nextBoolean()) {
+                Collections.swap(list, random.nextInt(list.size()), random.nextInt(list.size()));
+            }
+            return list;
+        } else if (value instanceof Map) {
+            Map<String, Object> map = new HashMap<>((Map<String, Object>) value);
+            map.replaceAll((k, v) -> random.nextInt(3) == 0 ? mutate(random, v, depth - 1) : v);
+            if (random.nextInt(3) == 0) {
+                map.put("k" + random.nextInt(6), randomValue(random, depth - 1));
+            }
+            if (!map.isEmpty() && random.nextInt(3) == 0) {
+                map.remove(map.keySet().iterator().next());
+            }
+            return map;
+        } else {
+            return random.nextInt(3) == 0 ? randomValue(random, depth) : value;
+        }
+    }
+
+    /**
+     * Apply the changes as JSON Patch would, to check that they are valid in order
+     */
+    @SuppressWarnings("unchecked")
+    private static Object apply(Object value, List<JsonChange> changes) {
+        Object root = copy(value);
+        for (JsonChange change : changes) {
+            if (change.getPath().isEmpty()) {
+                root = change.getOp() == JsonChange.Op.REMOVE ? null : copy(change.getValue());
+                continue;
+            }
+            Object moved = null;
+            if (change.getOp() == JsonChange.Op.MOVE) {
+                moved = remove(root, change.getFrom());
+            } else if (change.getOp() == JsonChange.Op.REMOVE || change.getOp() == JsonChange.Op.REPLACE) {
+                assertEquals(change.getOldValue(), remove(root, change.getPath()));
+            }
+            if (change.getOp() != JsonChange.Op.REMOVE) {
+                String path = change.getPath();
+                Object parent = resolve(root, path.substring(0, path.lastIndexOf('/')));
+                String key = path.substring(path.lastIndexOf('/') + 1);
+                Object added = moved != null ? moved : copy(change.getValue());
+                if (parent instanceof List) {
+                    ((List<Object>) parent).add(Integer.parseInt(key), added);
+                } else {
+                    ((Map<String, Object>) parent).put(key, added);
+                }
+            }
+        }
+        return root;
+    }
+
+    private static Object remove(Object root, String path) {
+        Object parent = resolve(root, path.substring(0, path.lastIndexOf('/')));
+        String key = path.substring(path.lastIndexOf('/') + 1);
+        return parent instanceof List ? ((List<?>) parent).remove(Integer.parseInt(key)) : ((Map<?, ?>) parent).remove(key);
+    }
+
+    private static Object resolve(Object root, String path) {
+        Object value = root;
+        for (String key : path.split("/")) {
+            if (!key.isEmpty()) {
+                value = value instanceof List ? ((List<?>) value).get(Integer.parseInt(key)) : ((Map<?, ?>) value).get(key);
+            }
+        }
+        return value;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            ((List<?>) value).forEach(element -> list.add(copy(element)));
+            return list;
+        } else if (value instanceof Map) {
+            Map<Object, Object> map = new HashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> map.put(k, copy(v)));
+            return map;
+        }
+        return value;
+    }
+}
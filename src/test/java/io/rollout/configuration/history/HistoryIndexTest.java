@@ -0,0 +1,58 @@
+package io.rollout.configuration.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class HistoryIndexTest extends TestCase {
+
+    private static Map<String, HistoryIndex.Change> changes(Object... nameAndChange) {
+        Map<String, HistoryIndex.Change> changes = new HashMap<>();
+        for (int i = 0; i < nameAndChange.length; i += 2) {
+            changes.put((String) nameAndChange[i], (HistoryIndex.Change) nameAndChange[i + 1]);
+        }
+        return changes;
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.add(1, changes("a", HistoryIndex.Change.ADDED, "b", HistoryIndex.Change.ADDED)));
+        assertTrue(index.add(2, changes()));
+        assertTrue(index.add(200, changes("a", HistoryIndex.Change.CHANGED)));
+        // Builds can complete out of order
+        assertTrue(index.add(150, changes("a", HistoryIndex.Change.CHANGED, "b", HistoryIndex.Change.REMOVED)));
+        // Already indexed
+        assertFalse(index.add(200, changes("a", HistoryIndex.Change.REMOVED)));
+
+        assertEquals("[#1 ADDED, #150 CHANGED, #200 CHANGED]", index.lookup("a").toString());
+        assertEquals("[#1 ADDED, #150 REMOVED]", index.lookup("b").toString());
+        assertEquals(Collections.emptyList(), index.lookup("c"));
+        assertEquals(Arrays.asList("a", "b"), index.getNames());
+        assertEquals(4, index.getBuildCount());
+        assertTrue(index.isIndexed(2));
+        assertFalse(index.isIndexed(3));
+
+        File dir = Files.createTempDirectory("history").toFile();
+        try {
+            File file = new File(dir, "index/env-FLAG.idx");
+            assertNull(HistoryIndex.read(file));
+            index.write(file);
+            HistoryIndex read = HistoryIndex.read(file);
+            assertEquals(index.lookup("a"), read.lookup("a"));
+            assertEquals(index.lookup("b"), read.lookup("b"));
+            assertTrue(read.isIndexed(150));
+            assertTrue(read.add(201, changes("a", HistoryIndex.Change.REMOVED)));
+            assertEquals("[#1 ADDED, #150 CHANGED, #200 CHANGED, #201 REMOVED]", read.lookup("a").toString());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
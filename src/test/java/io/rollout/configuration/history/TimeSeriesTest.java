@@ -0,0 +1,49 @@
+package io.rollout.configuration.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class TimeSeriesTest extends TestCase {
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        File dir = Files.createTempDirectory("series").toFile();
+        try {
+            File file = new File(dir, "trend/env.series");
+            assertTrue(TimeSeries.read(file).isEmpty());
+
+            TimeSeries.append(file, new TimeSeries.Point(2, 2000L, 10, 5, 3, 1, 2, 0));
+            TimeSeries.append(file, new TimeSeries.Point(1, 1000L, 9, 4, 3, 9, 0, 0));
+            // A build recorded again replaces the earlier point
+            TimeSeries.append(file, new TimeSeries.Point(2, 2000L, 11, 6, 3, 2, 2, 0));
+
+            List<TimeSeries.Point> points = TimeSeries.read(file);
+            assertEquals(2, points.size());
+            assertEquals(1, points.get(0).getBuild());
+            assertEquals(1000L, points.get(0).getTimestamp());
+            assertEquals(2, points.get(1).getBuild());
+            assertEquals(11, points.get(1).getFlags());
+            assertEquals(6, points.get(1).getEnabledFlags());
+            assertEquals(2, points.get(1).getAdded());
+
+            // A record cut short by a crash is ignored, so build 2 goes back to its earlier point, and is overwritten by the next append
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 5);
+            }
+            assertEquals(2, TimeSeries.read(file).size());
+            TimeSeries.append(file, new TimeSeries.Point(3, 3000L, 12, 6, 3, 1, 0, 0));
+            points = TimeSeries.read(file);
+            assertEquals(3, points.size());
+            assertEquals(10, points.get(1).getFlags());
+            assertEquals(3, points.get(2).getBuild());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
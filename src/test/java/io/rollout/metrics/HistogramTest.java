@@ -0,0 +1,57 @@
+package io.rollout.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class HistogramTest extends TestCase {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        int previous = -1;
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int bucket = Histogram.bucket(value);
+            assertTrue(bucket >= previous);
+            assertTrue(value + " should be within its bucket", value <= Histogram.upperBound(bucket));
+            // Within 12.5% of the value
+            assertTrue(Histogram.upperBound(bucket) - value <= value / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        Histogram histogram = new Histogram(Metrics.NANOSECONDS);
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        long median = histogram.getValueAtQuantile(0.5);
+        assertTrue(median + " should be close to 500", median >= 500 && median <= 500 * 9 / 8);
+        assertEquals(1000, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        Histogram histogram = new Histogram(Metrics.NANOSECONDS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4L * 9999 * 10000 / 2, histogram.getSum());
+    }
+}
@@ -0,0 +1,74 @@
+package io.rollout.publicapi;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rollout.publicapi.model.AuditLog;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class AuditLogIteratorTest extends TestCase {
+    private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private AuditLog log(int i) throws IOException {
+        return mapper.readValue("{\"message\": \"message " + i + "\", \"creation_date\": \"2022-01-14T14:55:41.777Z\"}", AuditLog.class);
+    }
+
+    private List<AuditLog> page(int from, int to) throws IOException {
+        List<AuditLog> page = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            page.add(log(i));
+        }
+        return page;
+    }
+
+    @Test
+    public void testFetchesPagesLazily() throws IOException {
+        List<Integer> requestedPages = new ArrayList<>();
+        AuditLogIterator iterator = new AuditLogIterator(page -> {
+            requestedPages.add(page);
+            switch (page) {
+                case 1: return page(0, 3);
+                case 2: return page(3, 6);
+                default: return page(6, 7);
+            }
+        }, 1, 3);
+
+        assertTrue(requestedPages.isEmpty());
+        assertEquals("message 0", iterator.next().getMessage());
+        assertEquals(1, requestedPages.size());
+
+        int count = 1;
+        while (iterator.hasNext()) {
+            assertEquals("message " + count++, iterator.next().getMessage());
+        }
+        assertEquals(7, count);
+        // The third page was short, so there is no need to ask for a fourth
+        assertEquals(3, requestedPages.size());
+    }
+
+    @Test
+    public void testStopsOnEmptyPage() throws IOException {
+        AuditLogIterator iterator = new AuditLogIterator(page -> page == 1 ? page(0, 3) : new ArrayList<>(), 1, 3);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testStopsWhenPageIsRepeated() throws IOException {
+        // An API that ignores the page parameter keeps returning the first page
+        AuditLogIterator iterator = new AuditLogIterator(page -> page(0, 3), 1, 3);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(3, count);
+    }
+}
@@ -0,0 +1,128 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import org.junit.Test;
+
+public class CoalescingInterceptorTest extends TestCase {
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Request request = new Request.Builder().url("https://x-api.rollout.io/public-api/applications").header("Authorization", "token").build();
+    private final CoalescingInterceptor interceptor = new CoalescingInterceptor(0, TimeUnit.SECONDS, 100);
+
+    /**
+     * Send two requests at once, the first of which is held up until the second has joined it
+     */
+    private CompletableFuture<String>[] sendTwo(FakeChain.Server server) throws Exception {
+        CountDownLatch sent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FakeChain.Server slow = r -> {
+            if (calls.get() == 1) {
+                sent.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return server.serve(r);
+        };
+        @SuppressWarnings("unchecked")
+        CompletableFuture<String>[] results = new CompletableFuture[2];
+        results[0] = CompletableFuture.supplyAsync(() -> send(slow));
+        sent.await();
+        results[1] = CompletableFuture.supplyAsync(() -> send(slow));
+        // Give the second request a chance to join the first before it completes
+        Thread.sleep(50);
+        release.countDown();
+        return results;
+    }
+
+    private String send(FakeChain.Server server) {
+        try (Response response = interceptor.intercept(new FakeChain(request, server, calls))) {
+            return response.body().string();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Response response(Request request, ResponseBody body) {
+        return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK").body(body).build();
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        CompletableFuture<String>[] results = sendTwo(r -> {
+            throw new IOException("Connection reset");
+        });
+        for (CompletableFuture<String> result : results) {
+            try {
+                result.get();
+                fail("Expected the failure to be passed on");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testChunkedBodyIsSharedThroughAFile() throws Exception {
+        CompletableFuture<String>[] results = sendTwo(r -> response(r,
+                ResponseBody.create(MediaType.parse("application/json"), -1, Okio.buffer(new Buffer().writeUtf8("[1]")))));
+        assertEquals("[1]", results[0].get());
+        assertEquals("[1]", results[1].get());
+        assertEquals(1, calls.get());
+        assertEquals(1, interceptor.getCoalescedCount());
+    }
+
+    @Test
+    public void testAsyncCallIsToldToComeBackLater() throws Exception {
+        CountDownLatch sent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> send(r -> {
+            sent.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return response(r, ResponseBody.create(MediaType.parse("application/json"), "[1]"));
+        }));
+        sent.await();
+
+        Request deferrable = request.newBuilder().tag(ThrottlingInterceptor.Deferrable.class, new ThrottlingInterceptor.Deferrable()).build();
+        try {
+            interceptor.intercept(new FakeChain(deferrable, r -> {
+                throw new AssertionError("should not be sent");
+            }, calls));
+            fail("the call should not wait for the one in flight");
+        } catch (ThrottlingInterceptor.RetryLaterException e) {
+            assertEquals(CoalescingInterceptor.DEFER_MILLIS, e.getDelayMillis());
+        } finally {
+            release.countDown();
+        }
+        assertEquals("[1]", first.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testSmallBodyIsShared() throws Exception {
+        CompletableFuture<String>[] results = sendTwo(r -> response(r, ResponseBody.create(MediaType.parse("application/json"), "[1]")));
+        assertEquals("[1]", results[0].get());
+        assertEquals("[1]", results[1].get());
+        assertEquals(1, calls.get());
+        assertEquals(1, interceptor.getCoalescedCount());
+    }
+}
@@ -0,0 +1,88 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class CredentialValidatorTest extends TestCase {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger checks = new AtomicInteger();
+
+    private CredentialValidator validator(ExecutorService executor) {
+        return new CredentialValidator(executor, 60, 10, 1, TimeUnit.SECONDS, 100, now::get);
+    }
+
+    @Test
+    public void testResultsExpire() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CredentialValidator validator = validator(executor);
+            CredentialValidator.Check rejected = () -> {
+                checks.incrementAndGet();
+                throw new PublicApiException(401, "Unauthorized");
+            };
+
+            assertEquals(CredentialValidator.State.INVALID, validator.validate("id", "token", rejected, 5, TimeUnit.SECONDS).getState());
+            assertEquals(CredentialValidator.State.INVALID, validator.validate("id", "token", rejected, 5, TimeUnit.SECONDS).getState());
+            assertEquals(1, checks.get());
+
+            // A new token for the same credentials is checked straight away
+            assertEquals(CredentialValidator.State.VALID, validator.validate("id", "rotated", checks::incrementAndGet, 5, TimeUnit.SECONDS).getState());
+            assertEquals(2, checks.get());
+
+            now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+            assertNull(validator.getCached("id", "token"));
+            assertNotNull(validator.getCached("id", "rotated"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThrottlingIsNotCachedAsInvalid() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CredentialValidator validator = validator(executor);
+            CredentialValidator.Result result = validator.validate("id", "token", () -> {
+                throw new PublicApiException(429, "Too Many Requests");
+            }, 5, TimeUnit.SECONDS);
+            assertEquals(CredentialValidator.State.UNAVAILABLE, result.getState());
+
+            now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            assertNull(validator.getCached("id", "token"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSlowCheckReportsCheckingAndIsShared() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CredentialValidator validator = validator(executor);
+            CountDownLatch release = new CountDownLatch(1);
+            CredentialValidator.Check slow = () -> {
+                checks.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            };
+
+            assertEquals(CredentialValidator.State.CHECKING, validator.validate("id", "token", slow, 10, TimeUnit.MILLISECONDS).getState());
+            assertEquals(CredentialValidator.State.CHECKING, validator.validate("id", "token", slow, 10, TimeUnit.MILLISECONDS).getState());
+            release.countDown();
+            assertEquals(CredentialValidator.State.VALID, validator.validate("id", "token", slow, 5, TimeUnit.SECONDS).getState());
+            assertEquals(1, checks.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
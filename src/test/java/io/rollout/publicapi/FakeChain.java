@@ -0,0 +1,81 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An interceptor chain that answers requests itself instead of sending them, counting how many get through
+ */
+class FakeChain implements Interceptor.Chain {
+    @FunctionalInterface
+    interface Server {
+        Response serve(Request request) throws IOException;
+    }
+
+    private final Request request;
+    private final Server server;
+    private final AtomicInteger calls;
+
+    FakeChain(Request request, Server server, AtomicInteger calls) {
+        this.request = request;
+        this.server = server;
+        this.calls = calls;
+    }
+
+    @Override
+    public Request request() {
+        return request;
+    }
+
+    @Override
+    public Response proceed(Request request) throws IOException {
+        calls.incrementAndGet();
+        return server.serve(request);
+    }
+
+    @Override
+    public Connection connection() {
+        return null;
+    }
+
+    @Override
+    public Call call() {
+        return null;
+    }
+
+    @Override
+    public int connectTimeoutMillis() {
+        return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withConnectTimeout(int timeout, TimeUnit unit) {
+        return this;
+    }
+
+    @Override
+    public int readTimeoutMillis() {
+        return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withReadTimeout(int timeout, TimeUnit unit) {
+        return this;
+    }
+
+    @Override
+    public int writeTimeoutMillis() {
+        return 0;
+    }
+
+    @Override
+    public Interceptor.Chain withWriteTimeout(int timeout, TimeUnit unit) {
+        return this;
+    }
+}
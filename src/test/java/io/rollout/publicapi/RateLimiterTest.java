@@ -0,0 +1,74 @@
+package io.rollout.publicapi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class RateLimiterTest extends TestCase {
+    private final AtomicLong now = new AtomicLong();
+    private final RateLimiter limiter = new RateLimiter(2, 2, now::get);
+
+    @Test
+    public void testBurstThenQueue() {
+        assertEquals(0, limiter.reserve("token"));
+        assertEquals(0, limiter.reserve("token"));
+        // The bucket is empty, so callers queue up behind each other, half a second apart
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserve("token"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), limiter.reserve("token"));
+
+        // Other tokens have their own bucket
+        assertEquals(0, limiter.reserve("other"));
+    }
+
+    @Test
+    public void testRefill() {
+        limiter.reserve("token");
+        limiter.reserve("token");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        // Refills up to the burst size only
+        assertEquals(0, limiter.reserve("token"));
+        assertEquals(0, limiter.reserve("token"));
+        assertTrue(limiter.reserve("token") > 0);
+    }
+
+    @Test
+    public void testPause() {
+        limiter.pause("token", 3, TimeUnit.SECONDS);
+        assertEquals(TimeUnit.SECONDS.toNanos(3), limiter.reserve("token"));
+        assertEquals(0, limiter.reserve("other"));
+    }
+
+    @Test
+    public void testDeferredCallersAreQueued() {
+        limiter.reserveWithoutWaiting("token");
+        limiter.reserveWithoutWaiting("token");
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserveWithoutWaiting("token"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), limiter.reserveWithoutWaiting("token"));
+        assertEquals(2, limiter.getQueueDepth());
+        assertEquals(2, limiter.getThrottledCount());
+
+        // The first one's permit can be used now
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1, limiter.getQueueDepth());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testIdleBucketsAreEvicted() {
+        limiter.reserve("token");
+        limiter.reserve("other");
+        limiter.pause("paused", 10, TimeUnit.SECONDS);
+        assertEquals(3, limiter.getBucketCount());
+
+        // Long enough for the buckets to fill up again, but "paused" is still paused
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        limiter.reserve("token");
+        assertEquals(2, limiter.getBucketCount());
+        // "token" was evicted while full, so it starts from a full bucket again
+        assertEquals(0, limiter.reserve("token"));
+        assertEquals(TimeUnit.SECONDS.toNanos(5), limiter.reserve("paused"));
+    }
+}
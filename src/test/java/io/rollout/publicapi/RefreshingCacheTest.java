@@ -0,0 +1,87 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class RefreshingCacheTest extends TestCase {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<Runnable> refreshes = new ArrayList<>();
+
+    private RefreshingCache<String, Integer> cache(int maxEntries) {
+        return new RefreshingCache<>(refreshes::add, 60, 3600, TimeUnit.SECONDS, maxEntries, now::get);
+    }
+
+    private void runRefreshes() {
+        List<Runnable> pending = new ArrayList<>(refreshes);
+        refreshes.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    @Test
+    public void testServesStaleValueWhileRefreshing() throws Exception {
+        RefreshingCache<String, Integer> cache = cache(10);
+        assertEquals(1, (int) cache.get("token", loads::incrementAndGet));
+        assertEquals(1, (int) cache.get("token", loads::incrementAndGet));
+        assertTrue(refreshes.isEmpty());
+
+        // Stale: the old value is returned and only one refresh is started
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertEquals(1, (int) cache.get("token", loads::incrementAndGet));
+        assertEquals(1, (int) cache.get("token", loads::incrementAndGet));
+        assertEquals(1, refreshes.size());
+        runRefreshes();
+        assertEquals(2, (int) cache.get("token", loads::incrementAndGet));
+
+        // Expired: loaded while the caller waits
+        now.addAndGet(TimeUnit.HOURS.toNanos(2));
+        assertEquals(3, (int) cache.get("token", loads::incrementAndGet));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsValueUntilNextInterval() throws Exception {
+        RefreshingCache<String, Integer> cache = cache(10);
+        assertEquals(1, (int) cache.get("token", loads::incrementAndGet));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        SingleFlight.Loader<Integer, IOException> throttled = () -> {
+            loads.incrementAndGet();
+            throw new PublicApiException(429, "Too Many Requests");
+        };
+        assertEquals(1, (int) cache.get("token", throttled));
+        runRefreshes();
+        assertEquals(1, (int) cache.get("token", throttled));
+        assertTrue("No new refresh within the interval", refreshes.isEmpty());
+        assertEquals(2, loads.get());
+
+        // Rejected tokens are dropped
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertEquals(1, (int) cache.get("token", () -> {
+            throw new PublicApiException(401, "Unauthorized");
+        }));
+        runRefreshes();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        RefreshingCache<String, Integer> cache = cache(2);
+        cache.get("a", loads::incrementAndGet);
+        now.incrementAndGet();
+        cache.get("b", loads::incrementAndGet);
+        now.incrementAndGet();
+        cache.get("c", loads::incrementAndGet);
+        assertEquals(2, cache.size());
+        // "a" was the oldest, so it is loaded again
+        assertEquals(4, (int) cache.get("a", loads::incrementAndGet));
+
+        cache.invalidateIf(key -> key.equals("c"));
+        assertEquals(5, (int) cache.get("c", loads::incrementAndGet));
+    }
+}
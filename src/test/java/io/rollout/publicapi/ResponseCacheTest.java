@@ -0,0 +1,85 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import org.junit.Test;
+
+public class ResponseCacheTest extends TestCase {
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Request request = new Request.Builder().url("https://x-api.rollout.io/public-api/applications").header("Authorization", "token").build();
+    // 400 bytes in all, so bodies of up to 100 bytes are cached
+    private final ResponseCache cache = new ResponseCache(10, TimeUnit.SECONDS, 400, now::get);
+
+    private String get(FakeChain.Server server) throws IOException {
+        try (Response response = cache.intercept(new FakeChain(request, server, calls))) {
+            return response.body().string();
+        }
+    }
+
+    private static Response response(Request request, ResponseBody body) {
+        return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK").body(body).build();
+    }
+
+    private static Response known(Request request, String body) {
+        return response(request, ResponseBody.create(JSON, body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * A body without a Content-Length, as chunked responses have
+     */
+    private static Response chunked(Request request, String body) {
+        return response(request, ResponseBody.create(JSON, -1, Okio.buffer(new Buffer().writeUtf8(body))));
+    }
+
+    @Test
+    public void testHitAndExpiry() throws Exception {
+        assertEquals("[1]", get(r -> known(r, "[1]")));
+        assertEquals("[1]", get(r -> known(r, "[2]")));
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getHitCount());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals("[2]", get(r -> known(r, "[2]")));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testOversizeBodyIsNotCached() throws Exception {
+        char[] big = new char[101];
+        Arrays.fill(big, 'x');
+        String body = new String(big);
+        assertEquals(body, get(r -> known(r, body)));
+        assertEquals(body, get(r -> chunked(r, body)));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testChunkedBodyIsCachedOnceRead() throws Exception {
+        assertEquals("[1]", get(r -> chunked(r, "[1]")));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("[1]", get(r -> chunked(r, "[2]")));
+        assertEquals(1, calls.get());
+
+        // A body that isn't read to the end isn't cached
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        cache.intercept(new FakeChain(request, r -> chunked(r, "[3]"), calls)).close();
+        assertEquals("[4]", get(r -> chunked(r, "[4]")));
+        assertEquals(3, calls.get());
+    }
+}
@@ -0,0 +1,78 @@
+package io.rollout.publicapi;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class SingleFlightTest extends TestCase {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>(5, TimeUnit.SECONDS, now::get);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Integer> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.execute("key", () -> {
+                    loading.countDown();
+                    release.await();
+                    return loads.incrementAndGet();
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        loading.await();
+
+        CompletableFuture<Integer> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.execute("key", loads::incrementAndGet);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // Give the follower a chance to join the in-flight call before it completes
+        Thread.sleep(50);
+        release.countDown();
+
+        assertEquals(Integer.valueOf(1), leader.get());
+        assertEquals(Integer.valueOf(1), follower.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testFreshnessWindow() throws InterruptedException {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>(5, TimeUnit.SECONDS, now::get);
+        assertEquals(Integer.valueOf(1), singleFlight.execute("key", loads::incrementAndGet));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        assertEquals(Integer.valueOf(1), singleFlight.execute("key", loads::incrementAndGet));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("other", loads::incrementAndGet));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(Integer.valueOf(3), singleFlight.execute("key", loads::incrementAndGet));
+    }
+
+    @Test
+    public void testFailuresAreNotKept() throws InterruptedException {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>(5, TimeUnit.SECONDS, now::get);
+        try {
+            singleFlight.execute("key", () -> {
+                throw new IOException("boom");
+            });
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        assertEquals(Integer.valueOf(1), singleFlight.execute("key", loads::incrementAndGet));
+    }
+}
@@ -0,0 +1,43 @@
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class CompactValueDeserializerTest extends TestCase {
+    private static final String JSON = "[{\"name\":\"a\",\"enabled\":true,\"platforms\":[{\"name\":\"Default\",\"value\":1.5,\"conditions\":[]}],\"labels\":{}},"
+            + "{\"name\":\"b\",\"enabled\":false,\"platforms\":[{\"name\":\"Default\",\"value\":12345678901,\"conditions\":[null]}]}]";
+
+    @Test
+    public void testSameAsDefaultDeserialization() throws IOException {
+        List<Flag> expected = new ObjectMapper().readValue(JSON, new TypeReference<List<Flag>>() {});
+        List<Flag> compact = new ObjectMapper().registerModule(CompactValueDeserializer.module()).readValue(JSON, new TypeReference<List<Flag>>() {});
+
+        assertEquals(expected, compact);
+        assertEquals(expected.hashCode(), compact.hashCode());
+        assertEquals("a", compact.get(0).getName());
+        assertFalse(compact.get(1).isEnabled());
+        assertEquals(expected.toString(), compact.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testValuesAreCompactAndShared() throws IOException {
+        List<Flag> flags = new ObjectMapper().registerModule(CompactValueDeserializer.module()).readValue(JSON, new TypeReference<List<Flag>>() {});
+
+        Map<?, ?> first = (Map<?, ?>) ((List<?>) flags.get(0).get("platforms")).get(0);
+        Map<?, ?> second = (Map<?, ?>) ((List<?>) flags.get(1).get("platforms")).get(0);
+        assertTrue(first instanceof CompactMap);
+        assertSame(first.get("name"), second.get("name"));
+        try {
+            ((Map<String, Object>) first).put("name", "changed");
+            fail("values should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.rollout.publicapi.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class DataPersisterTest extends TestCase {
+
+    private static Flag flag(String name) {
+        Flag flag = new Flag();
+        flag.put("name", name);
+        flag.put("enabled", true);
+        return flag;
+    }
+
+    @Test
+    public void testSnapshotsInAnyFormatCanBeRead() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            // A snapshot saved by an older version of the plugin
+            FileUtils.writeStringToFile(new File(dir, "env-FLAG.json"), "[ {\n  \"enabled\" : true,\n  \"name\" : \"legacy\"\n} ]", StandardCharsets.UTF_8);
+
+            DataPersister.setFormat(SnapshotFormat.JSON_GZIP);
+            assertEquals("legacy", read(dir).get(0).getName());
+
+            DataPersister.writeValue(dir, "env", DataPersister.EntityType.FLAG, Collections.singletonList(flag("compressed")));
+            assertFalse("the legacy file should be replaced", new File(dir, "env-FLAG.json").exists());
+            assertTrue(new File(dir, "env-FLAG.json.gz").exists());
+            assertEquals("compressed", read(dir).get(0).getName());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(DataPersister.copyAsJson(dir, "env", DataPersister.EntityType.FLAG, out));
+            assertEquals("[ {\n  \"enabled\" : true,\n  \"name\" : \"compressed\"\n} ]", new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r", ""));
+
+            assertFalse(DataPersister.copyAsJson(dir, "env", DataPersister.EntityType.TARGET_GROUP, out));
+        } finally {
+            DataPersister.setFormat(SnapshotFormat.PRETTY_JSON);
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testReadValuesAtPositions() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            DataPersister.writeValue(dir, "env", DataPersister.EntityType.FLAG, Arrays.asList(flag("zero"), flag("one"), flag("two"), flag("three")));
+
+            Map<Integer, Flag> flags = DataPersister.readValues(dir, "env", DataPersister.EntityType.FLAG, Flag.class, new HashSet<>(Arrays.asList(1, 3)));
+
+            assertEquals(2, flags.size());
+            assertEquals("one", flags.get(1).getName());
+            assertEquals("three", flags.get(3).getName());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static void save(File dir, Flag... flags) throws IOException {
+        EntityIndex.Builder index = new EntityIndex.Builder();
+        for (Flag flag : flags) {
+            index.add(flag);
+        }
+        DataPersister.writeValue(dir, "env", DataPersister.EntityType.FLAG, Arrays.asList(flags));
+        DataPersister.writeIndex(dir, "env", DataPersister.EntityType.FLAG, index.build());
+    }
+
+    private static List<String> names(List<Flag> flags) {
+        return flags.stream().map(Flag::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testDeltasWithKeyframes() throws IOException {
+        File builds = Files.createTempDirectory("builds").toFile();
+        try {
+            DataPersister.setKeyframeInterval(3);
+            File one = new File(builds, "1");
+            File two = new File(builds, "2");
+            File three = new File(builds, "3");
+            File four = new File(builds, "4");
+            for (File dir : Arrays.asList(one, two, three, four)) {
+                assertTrue(dir.mkdir());
+            }
+            Flag changed = flag("b");
+            changed.put("enabled", false);
+
+            save(one, flag("a"), flag("b"), flag("c"));
+            save(two, flag("new"), flag("a"), changed);
+            assertTrue(DataPersister.writeDelta(two, one, "env", DataPersister.EntityType.FLAG));
+            assertNull(DataPersister.find(two, "env", DataPersister.EntityType.FLAG));
+            assertEquals(one.getAbsoluteFile(), DataPersister.getDeltaBase(two, "env", DataPersister.EntityType.FLAG));
+
+            save(three, flag("new"), flag("a"), changed, flag("d"));
+            assertTrue(DataPersister.writeDelta(three, two, "env", DataPersister.EntityType.FLAG));
+            // The chain is as long as the keyframe interval allows, so the next one is saved in full
+            save(four, flag("new"), flag("a"), changed, flag("d"));
+            assertFalse(DataPersister.writeDelta(four, three, "env", DataPersister.EntityType.FLAG));
+
+            assertEquals(Arrays.asList("new", "a", "b"), names(read(two)));
+            assertFalse(read(two).get(2).isEnabled());
+            List<Flag> flags = read(three);
+            assertEquals(Arrays.asList("new", "a", "b", "d"), names(flags));
+            assertEquals("d", DataPersister.readValues(three, "env", DataPersister.EntityType.FLAG, Flag.class, Collections.singleton(3)).get(3).getName());
+
+            // Before the base is deleted, the snapshot that depends on it is saved in full
+            assertTrue(DataPersister.writeKeyframe(two, "env", DataPersister.EntityType.FLAG));
+            FileUtils.deleteDirectory(one);
+            assertNull(DataPersister.getDeltaBase(two, "env", DataPersister.EntityType.FLAG));
+            assertNotNull(DataPersister.readIndex(two, "env", DataPersister.EntityType.FLAG));
+            assertEquals(Arrays.asList("new", "a", "b", "d"), names(read(three)));
+        } finally {
+            DataPersister.setKeyframeInterval(0);
+            FileUtils.deleteDirectory(builds);
+        }
+    }
+
+    @Test
+    public void testFailedKeyframeKeepsTheDelta() throws IOException {
+        File builds = Files.createTempDirectory("builds").toFile();
+        try {
+            DataPersister.setKeyframeInterval(3);
+            File one = new File(builds, "1");
+            File two = new File(builds, "2");
+            assertTrue(one.mkdir());
+            assertTrue(two.mkdir());
+            save(one, flag("a"), flag("b"));
+            save(two, flag("a"), flag("c"));
+            assertTrue(DataPersister.writeDelta(two, one, "env", DataPersister.EntityType.FLAG));
+
+            // The disk fills up as the full snapshot is stored
+            DataPersister.setSnapshotStore(new SnapshotStore(new File(builds, "store")) {
+                @Override
+                void store(Path file, String hash, Path target) throws IOException {
+                    throw new IOException("No space left on device");
+                }
+            });
+            try {
+                DataPersister.writeKeyframe(two, "env", DataPersister.EntityType.FLAG);
+                fail("the write should fail");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                DataPersister.setSnapshotStore(null);
+            }
+            assertEquals(one.getAbsoluteFile(), DataPersister.getDeltaBase(two, "env", DataPersister.EntityType.FLAG));
+            assertNotNull(DataPersister.readIndex(two, "env", DataPersister.EntityType.FLAG));
+            assertEquals(Arrays.asList("a", "c"), names(read(two)));
+
+            // It can be tried again, and then the base is no longer needed
+            assertTrue(DataPersister.writeKeyframe(two, "env", DataPersister.EntityType.FLAG));
+            FileUtils.deleteDirectory(one);
+            assertEquals(Arrays.asList("a", "c"), names(read(two)));
+            assertEquals(new HashSet<>(Arrays.asList("env-FLAG.json", "env-FLAG.index")), new HashSet<>(Arrays.asList(two.list())));
+        } finally {
+            DataPersister.setKeyframeInterval(0);
+            FileUtils.deleteDirectory(builds);
+        }
+    }
+
+    @Test
+    public void testUncommittedWriterKeepsTheSavedSnapshot() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            DataPersister.writeValue(dir, "env", DataPersister.EntityType.FLAG, Arrays.asList(flag("a"), flag("b")));
+
+            try (DataPersister.SnapshotWriter writer = DataPersister.openWriter(dir, "env", DataPersister.EntityType.FLAG)) {
+                // The download fails part way through
+                writer.write(flag("c"));
+            }
+            assertEquals(Arrays.asList("a", "b"), names(read(dir)));
+            assertEquals(1, dir.list().length);
+
+            try (DataPersister.SnapshotWriter writer = DataPersister.openWriter(dir, "env", DataPersister.EntityType.FLAG)) {
+                writer.write(flag("c"));
+                writer.commit();
+            }
+            assertEquals(Collections.singletonList("c"), names(read(dir)));
+            assertEquals(1, dir.list().length);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static List<Flag> read(File dir) throws IOException {
+        return DataPersister.readValue(dir, "env", DataPersister.EntityType.FLAG, new TypeReference<List<Flag>>() {}, null);
+    }
+}
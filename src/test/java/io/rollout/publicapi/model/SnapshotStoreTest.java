@@ -0,0 +1,93 @@
+package io.rollout.publicapi.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class SnapshotStoreTest extends TestCase {
+
+    private static void write(SnapshotStore store, File target, String content) throws IOException {
+        try (OutputStream out = store.open(target)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testIdenticalSnapshotsAreStoredOnce() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            SnapshotStore store = new SnapshotStore(new File(dir, "store"));
+            File build1 = new File(dir, "1-FLAG.json");
+            File build2 = new File(dir, "2-FLAG.json");
+            File build3 = new File(dir, "3-FLAG.json");
+            write(store, build1, "[{\"name\":\"flag\"}]");
+            write(store, build2, "[{\"name\":\"flag\"}]");
+            write(store, build3, "[{\"name\":\"other\"}]");
+
+            assertEquals("[{\"name\":\"flag\"}]", FileUtils.readFileToString(build2, StandardCharsets.UTF_8));
+            assertTrue(Files.isSameFile(build1.toPath(), build2.toPath()));
+            assertFalse(Files.isSameFile(build1.toPath(), build3.toPath()));
+
+            // Still referenced by the builds
+            assertEquals(0, store.collectGarbage(-1, TimeUnit.SECONDS));
+
+            assertTrue(build1.delete());
+            assertTrue(build2.delete());
+            assertEquals(1, store.collectGarbage(-1, TimeUnit.SECONDS));
+            assertEquals("[{\"name\":\"other\"}]", FileUtils.readFileToString(build3, StandardCharsets.UTF_8));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testReuseLeavesTheOtherBuildsAlone() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            SnapshotStore store = new SnapshotStore(new File(dir, "store"));
+            File build1 = new File(dir, "1-FLAG.json");
+            File build2 = new File(dir, "2-FLAG.json");
+            write(store, build1, "[{\"name\":\"flag\"}]");
+            long lastModified = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+            assertTrue(build1.setLastModified(lastModified));
+
+            // The timestamp is what the earlier build's snapshot is versioned by, so storing the same content again must keep it
+            write(store, build2, "[{\"name\":\"flag\"}]");
+            assertTrue(Files.isSameFile(build1.toPath(), build2.toPath()));
+            assertEquals(lastModified / 1000, build1.lastModified() / 1000);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testReusedBlobIsKeptByGarbageCollection() throws IOException {
+        File dir = Files.createTempDirectory("snapshots").toFile();
+        try {
+            SnapshotStore store = new SnapshotStore(new File(dir, "store"));
+            File build1 = new File(dir, "1-FLAG.json");
+            File build2 = new File(dir, "2-FLAG.json");
+            write(store, build1, "[{\"name\":\"flag\"}]");
+            assertTrue(build1.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+            assertTrue(build1.delete());
+
+            // The blob is old and unreferenced, but reusing it links it again before garbage collection can remove it
+            write(store, build2, "[{\"name\":\"flag\"}]");
+            assertEquals(0, store.collectGarbage(1, TimeUnit.DAYS));
+            assertEquals("[{\"name\":\"flag\"}]", FileUtils.readFileToString(build2, StandardCharsets.UTF_8));
+            try (Stream<Path> files = Files.list(new File(dir, "store/tmp").toPath())) {
+                assertEquals("The temporary file is cleaned up", 0, files.count());
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}